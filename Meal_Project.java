@@ -1,18 +1,58 @@
 import javax.swing.*;
 import javax.swing.border.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.plaf.basic.ComboPopup;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 // Interface for database operations
 interface DatabaseOperations<T> {
@@ -21,6 +61,14 @@ interface DatabaseOperations<T> {
     List<T> getAll() throws DatabaseException;
 }
 
+// Meal storage together with the category operations the UI needs
+interface MealCatalog extends DatabaseOperations<Meal> {
+    List<Category> getAllCategories() throws DatabaseException;
+    void insertCategory(Category category) throws DatabaseException;
+    // The handle cancels this scan only, whichever thread runs it
+    void scanOrdered(MealColumn column, boolean ascending, int limit, MealRowSink sink, QueryHandle handle) throws DatabaseException;
+}
+
 // Custom exception class
 class DatabaseException extends Exception {
     public DatabaseException(String message) {
@@ -30,233 +78,3526 @@ class DatabaseException extends Exception {
     public DatabaseException(String message, Throwable cause) {
         super(message, cause);
     }
-}
-
-// Meal class to demonstrate generics
-class Meal {
-    private int mealId;
-    private String mealName;
-    private int calories;
-    private double price;
-    private int categoryId;
-    private String categoryName; // Added for join operation
+}
+
+// Meal class to demonstrate generics
+class Meal {
+    private int mealId;
+    private String mealName;
+    private int calories;
+    private double price;
+    private int categoryId;
+    private String categoryName; // Added for join operation
+    
+    public Meal(int mealId, String mealName, int calories, double price) {
+        this.mealId = mealId;
+        this.mealName = mealName;
+        this.calories = calories;
+        this.price = price;
+    }
+    
+    // Constructor with category information
+    public Meal(int mealId, String mealName, int calories, double price, int categoryId, String categoryName) {
+        this.mealId = mealId;
+        this.mealName = mealName;
+        this.calories = calories;
+        this.price = price;
+        this.categoryId = categoryId;
+        this.categoryName = categoryName;
+    }
+    
+    // Getters and setters
+    public int getMealId() { return mealId; }
+    public void setMealId(int mealId) { this.mealId = mealId; }
+    public String getMealName() { return mealName; }
+    public void setMealName(String mealName) { this.mealName = mealName; }
+    public int getCalories() { return calories; }
+    public void setCalories(int calories) { this.calories = calories; }
+    public double getPrice() { return price; }
+    public void setPrice(double price) { this.price = price; }
+    public int getCategoryId() { return categoryId; }
+    public void setCategoryId(int categoryId) { this.categoryId = categoryId; }
+    public String getCategoryName() { return categoryName; }
+    public void setCategoryName(String categoryName) { this.categoryName = categoryName; }
+    
+    @Override
+    public String toString() {
+        return "Meal{" +
+                "mealId=" + mealId +
+                ", mealName='" + mealName + '\'' +
+                ", calories=" + calories +
+                ", price=" + price +
+                ", categoryId=" + categoryId +
+                ", categoryName='" + categoryName + '\'' +
+                '}';
+    }
+}
+
+// Category class for meal categories
+class Category {
+    private int categoryId;
+    private String categoryName;
+    private String description;
+    
+    public Category(int categoryId, String categoryName, String description) {
+        this.categoryId = categoryId;
+        this.categoryName = categoryName;
+        this.description = description;
+    }
+    
+    // Getters and setters
+    public int getCategoryId() { return categoryId; }
+    public void setCategoryId(int categoryId) { this.categoryId = categoryId; }
+    public String getCategoryName() { return categoryName; }
+    public void setCategoryName(String categoryName) { this.categoryName = categoryName; }
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    
+    @Override
+    public String toString() {
+        return categoryName;
+    }
+}
+
+// Chooses the connection each statement runs on
+interface ConnectionRouter {
+    Connection forRead() throws SQLException;
+    Connection forWrite() throws SQLException;
+    
+    // Called after a write commits, so the session can read its own writes
+    default void writeCompleted() {}
+    
+    // Called when a statement fails on a connection handed out by this router
+    default void reportFailure(Connection connection) {}
+    
+    // Connection for write transactions; a router with a single connection returns that one
+    default Connection forTransaction() throws SQLException {
+        return forWrite();
+    }
+    
+    // Whether reads handed this connection could run inside another thread's open write transaction
+    default boolean sharesTransactions(Connection connection) {
+        return true;
+    }
+}
+
+// Routes reads to healthy replicas in turn and writes to the primary. After a write,
+// reads stay on the primary for a short window so the session sees its own changes.
+class ReplicatedConnectionRouter implements ConnectionRouter {
+    private final Endpoint primary;
+    // A second primary connection that only carries write transactions, so reads and change-log
+    // polls on the primary never run inside another thread's open transaction
+    private final Endpoint writer;
+    private final List<Endpoint> replicas = new ArrayList<>();
+    private final String user;
+    private final String password;
+    private final long readYourWritesNanos;
+    private final int maxReplicaLagSeconds;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+    private volatile long lastWriteNanos;
+    private volatile boolean wroteOnce;
+    
+    // One database server and the connection kept open to it
+    private static class Endpoint {
+        final String url;
+        volatile Connection connection;
+        volatile boolean healthy;
+        
+        Endpoint(String url) {
+            this.url = url;
+        }
+    }
+    
+    public ReplicatedConnectionRouter(String primaryUrl, List<String> replicaUrls, String user, String password,
+                                      long readYourWritesMillis, int maxReplicaLagSeconds, int healthCheckSeconds) throws SQLException {
+        this.user = user;
+        this.password = password;
+        // A replica stays in rotation while it is up to maxReplicaLagSeconds behind (reported in whole
+        // seconds), and that is only re-measured every health check, so a shorter window would let a
+        // read miss this instance's own write
+        long minimumWindowMillis = TimeUnit.SECONDS.toMillis(maxReplicaLagSeconds + 1L + healthCheckSeconds);
+        if (maxReplicaLagSeconds >= 0 && readYourWritesMillis < minimumWindowMillis) {
+            System.err.println("meal.db.readYourWritesMillis raised from " + readYourWritesMillis + " to "
+                + minimumWindowMillis + " to cover maxReplicaLagSeconds plus one health check");
+            readYourWritesMillis = minimumWindowMillis;
+        } else if (maxReplicaLagSeconds < 0 && !replicaUrls.isEmpty()) {
+            System.err.println("Replica lag check is disabled; reads more than " + readYourWritesMillis
+                + " ms after a write may not see it");
+        }
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.maxReplicaLagSeconds = maxReplicaLagSeconds;
+        primary = new Endpoint(primaryUrl);
+        primary.connection = DriverManager.getConnection(primaryUrl, user, password);
+        primary.healthy = true;
+        writer = new Endpoint(primaryUrl);
+        writer.connection = DriverManager.getConnection(primaryUrl, user, password);
+        writer.healthy = true;
+        for (String url : replicaUrls) {
+            Endpoint replica = new Endpoint(url);
+            replicas.add(replica);
+            checkHealth(replica);
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkAll, healthCheckSeconds, healthCheckSeconds, TimeUnit.SECONDS);
+    }
+    
+    // meal.db.url, meal.db.replicas (comma separated), meal.db.user, meal.db.password,
+    // meal.db.readYourWritesMillis (defaults to the lag limit plus one health check),
+    // meal.db.maxReplicaLagSeconds (negative disables), meal.db.healthCheckSeconds
+    public static ReplicatedConnectionRouter fromSystemProperties() throws SQLException {
+        List<String> replicaUrls = new ArrayList<>();
+        for (String url : System.getProperty("meal.db.replicas", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                replicaUrls.add(url.trim());
+            }
+        }
+        int maxLagSeconds = Integer.getInteger("meal.db.maxReplicaLagSeconds", 10);
+        int healthCheckSeconds = Integer.getInteger("meal.db.healthCheckSeconds", 5);
+        return new ReplicatedConnectionRouter(
+            System.getProperty("meal.db.url", "jdbc:mysql://localhost:3306/meal_plan?useCursorFetch=true"),
+            replicaUrls,
+            System.getProperty("meal.db.user", "root"),
+            System.getProperty("meal.db.password", "Nayasa!123"),
+            Long.getLong("meal.db.readYourWritesMillis", TimeUnit.SECONDS.toMillis(Math.max(maxLagSeconds, 0) + 1L + healthCheckSeconds)),
+            maxLagSeconds,
+            healthCheckSeconds);
+    }
+    
+    @Override
+    public Connection forRead() throws SQLException {
+        if (wroteOnce && System.nanoTime() - lastWriteNanos < readYourWritesNanos) {
+            return forWrite();
+        }
+        int count = replicas.size();
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < count; i++) {
+            Endpoint replica = replicas.get(Math.floorMod(start + i, count));
+            Connection connection = replica.connection;
+            if (replica.healthy && connection != null) {
+                return connection;
+            }
+        }
+        return forWrite();
+    }
+    
+    @Override
+    public Connection forWrite() throws SQLException {
+        Connection connection = primary.connection;
+        if (connection == null) {
+            throw new SQLException("Primary database is unavailable: " + primary.url);
+        }
+        return connection;
+    }
+    
+    @Override
+    public Connection forTransaction() throws SQLException {
+        Connection connection = writer.connection;
+        if (connection == null) {
+            throw new SQLException("Primary database is unavailable: " + writer.url);
+        }
+        return connection;
+    }
+    
+    @Override
+    public boolean sharesTransactions(Connection connection) {
+        return connection == writer.connection;
+    }
+    
+    @Override
+    public void writeCompleted() {
+        lastWriteNanos = System.nanoTime();
+        wroteOnce = true;
+    }
+    
+    // A failing replica leaves the rotation until the next health check revives it
+    @Override
+    public void reportFailure(Connection connection) {
+        for (Endpoint replica : replicas) {
+            if (replica.connection == connection) {
+                replica.healthy = false;
+            }
+        }
+    }
+    
+    public int getHealthyReplicaCount() {
+        int healthy = 0;
+        for (Endpoint replica : replicas) {
+            if (replica.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+    
+    public void close() {
+        healthChecker.shutdownNow();
+        closeQuietly(primary);
+        closeQuietly(writer);
+        for (Endpoint replica : replicas) {
+            closeQuietly(replica);
+        }
+    }
+    
+    private void checkAll() {
+        if (!isValid(primary.connection)) {
+            primary.connection = reconnect(primary);
+        }
+        if (!isValid(writer.connection)) {
+            writer.connection = reconnect(writer);
+        }
+        for (Endpoint replica : replicas) {
+            checkHealth(replica);
+        }
+    }
+    
+    private void checkHealth(Endpoint replica) {
+        if (!isValid(replica.connection)) {
+            replica.healthy = false;
+            replica.connection = reconnect(replica);
+            if (replica.connection == null) {
+                return;
+            }
+        }
+        // A negative limit skips the lag check, e.g. for two unreplicated test instances
+        boolean healthy = maxReplicaLagSeconds < 0 || replicationLagSeconds(replica.connection) <= maxReplicaLagSeconds;
+        if (healthy != replica.healthy) {
+            System.out.println("Replica " + replica.url + (healthy ? " is in rotation" : " left rotation"));
+        }
+        replica.healthy = healthy;
+    }
+    
+    private Connection reconnect(Endpoint endpoint) {
+        closeQuietly(endpoint);
+        try {
+            return DriverManager.getConnection(endpoint.url, user, password);
+        } catch (SQLException e) {
+            System.err.println("Cannot connect to " + endpoint.url + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Seconds behind the source, or Long.MAX_VALUE if replication is stopped or unknown
+    private long replicationLagSeconds(Connection connection) {
+        // SHOW REPLICA STATUS is MySQL 8.0.22+ and MariaDB 10.5.1+; older servers only know SLAVE
+        for (String query : new String[]{"SHOW REPLICA STATUS", "SHOW SLAVE STATUS"}) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(query)) {
+                if (!resultSet.next()) {
+                    return Long.MAX_VALUE;
+                }
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    String column = metaData.getColumnLabel(i);
+                    if (column.equals("Seconds_Behind_Source") || column.equals("Seconds_Behind_Master")) {
+                        long lag = resultSet.getLong(i);
+                        return resultSet.wasNull() ? Long.MAX_VALUE : lag;
+                    }
+                }
+                return Long.MAX_VALUE;
+            } catch (SQLException e) {
+                // Try the older syntax
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection != null && connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private static void closeQuietly(Endpoint endpoint) {
+        if (endpoint.connection != null) {
+            try {
+                endpoint.connection.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing connection to " + endpoint.url + ": " + e.getMessage());
+            }
+            endpoint.connection = null;
+        }
+    }
+}
+
+// Database service implementing the interface with generics
+class MealDatabaseService implements MealCatalog, ChangeLogSource {
+    // Using JOIN to get category information
+    private static final String SELECT_MEALS =
+        "SELECT m.meal_id, m.meal_name, m.calories, m.price, m.category_id, c.category_name " +
+        "FROM meals m LEFT JOIN meal_categories c ON m.category_id = c.category_id";
+    
+    // Meal rows for the table; category names come from CategoryDirectory instead of a join
+    private static final String SELECT_MEAL_ROWS =
+        "SELECT m.meal_id, m.meal_name, m.calories, m.price, m.category_id FROM meals m";
+    
+    private static final String DELETE_MEAL = "DELETE FROM meals WHERE meal_id = ?";
+    
+    private static final String LATEST_CHANGE_SEQ = "SELECT COALESCE(MAX(seq), 0) FROM meal_change_log";
+    private static final String SELECT_CHANGES =
+        "SELECT seq, entity_id, operation, node_id FROM meal_change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String TRIM_CHANGE_LOG = "DELETE FROM meal_change_log WHERE changed_at < NOW() - INTERVAL ? HOUR";
+    
+    // Rows per round trip when the URL enables server-side cursors (useCursorFetch=true)
+    private static final int FETCH_SIZE = 10_000;
+    
+    // Body of one JDBC operation, run against the connection the router picked
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException, DatabaseException;
+    }
+    
+    // PRIMARY runs on the primary without counting as a session write
+    private enum Access { READ, PRIMARY, WRITE }
+    
+    private final ConnectionRouter router;
+    private final QueryPolicy policy;
+    private final CircuitBreaker circuitBreaker;
+    // Only the hedgeable point reads (getAll, getAllCategories); table scans and change-log
+    // polls would skew the p95 that sets the hedge delay
+    private final LatencyTracker pointReadLatency = new LatencyTracker(1024);
+    private final LatencyTracker writeLatency = new LatencyTracker(1024);
+    // Statement each worker thread is executing, so another thread can cancel it
+    private final Map<Thread, Statement> inFlight = new ConcurrentHashMap<>();
+    private volatile String changeLogNodeId;
+    private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-read");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public MealDatabaseService(Connection connection) {
+        this(new ConnectionRouter() {
+            @Override
+            public Connection forRead() { return connection; }
+            
+            @Override
+            public Connection forWrite() { return connection; }
+        }, QueryPolicy.defaults());
+    }
+    
+    public MealDatabaseService(ConnectionRouter router, QueryPolicy policy) {
+        this.router = router;
+        this.policy = policy;
+        this.circuitBreaker = new CircuitBreaker(policy.getBreakerFailureThreshold(), policy.getBreakerOpenMillis());
+    }
+    
+    // The read and delete statements issued by this service, for QueryPlanChecker.
+    // The change-log queries need schema version 4 (SchemaMigrator.CHANGE_LOG_VERSION).
+    public static List<ExplainedQuery> explainedQueries() {
+        List<ExplainedQuery> queries = new ArrayList<>();
+        queries.add(new ExplainedQuery("getAll", SELECT_MEALS, true));
+        queries.add(new ExplainedQuery("delete", DELETE_MEAL, false, 1));
+        for (MealColumn column : MealColumn.values()) {
+            for (boolean ascending : new boolean[]{true, false}) {
+                // Category order is only known after the join, so that one needs a full pass
+                queries.add(new ExplainedQuery("scanOrdered(" + column + (ascending ? " ASC" : " DESC") + ")",
+                    orderedQuery(column, ascending), column == MealColumn.CATEGORY, 1000));
+            }
+        }
+        queries.add(new ExplainedQuery("latestChangeSeq", LATEST_CHANGE_SEQ, false));
+        queries.add(new ExplainedQuery("changesSince", SELECT_CHANGES, false, 1L, 500));
+        queries.add(new ExplainedQuery("getByIds", byIdsQuery(3), false, 1, 2, 3));
+        queries.add(new ExplainedQuery("trimChangeLog", TRIM_CHANGE_LOG, false, 24));
+        return queries;
+    }
+    
+    private static String byIdsQuery(int count) {
+        StringBuilder query = new StringBuilder(SELECT_MEALS).append(" WHERE m.meal_id IN (?");
+        for (int i = 1; i < count; i++) {
+            query.append(", ?");
+        }
+        return query.append(')').toString();
+    }
+    
+    private static String orderedQuery(MealColumn column, boolean ascending) {
+        // Only a category order needs the names on the server
+        String select = column == MealColumn.CATEGORY
+            ? SELECT_MEAL_ROWS + " LEFT JOIN meal_categories c ON m.category_id = c.category_id" : SELECT_MEAL_ROWS;
+        // Both keys run in the same direction so the (column, meal_id) index can be read backwards
+        String direction = ascending ? " ASC" : " DESC";
+        return select + " ORDER BY " + column.getOrderBy() + direction + ", m.meal_id" + direction + " LIMIT ?";
+    }
+    
+    public String latencyReport() {
+        return "point reads " + pointReadLatency.summary() + "; writes " + writeLatency.summary();
+    }
+    
+    @Override
+    public void insert(Meal meal) throws DatabaseException {
+        execute("Failed to insert meal", Access.WRITE, connection -> {
+            PreparedStatement preparedStatement = null;
+            try {
+                preparedStatement = begin(connection.prepareStatement(
+                    "INSERT INTO meals (meal_id, meal_name, calories, price, category_id) VALUES (?, ?, ?, ?, ?)"),
+                    policy.getWriteTimeoutSeconds());
+                preparedStatement.setInt(1, meal.getMealId());
+                preparedStatement.setString(2, meal.getMealName());
+                preparedStatement.setInt(3, meal.getCalories());
+                preparedStatement.setDouble(4, meal.getPrice());
+                // Category 0 means "Uncategorized", stored as NULL to satisfy the foreign key
+                if (meal.getCategoryId() != 0) {
+                    preparedStatement.setInt(5, meal.getCategoryId());
+                } else {
+                    preparedStatement.setNull(5, Types.INTEGER);
+                }
+                preparedStatement.executeUpdate();
+                logChange(connection, MealChange.MEAL_INSERTED, meal.getMealId());
+                return null;
+            } finally {
+                try {
+                    if (preparedStatement != null) {
+                        preparedStatement.close();
+                    }
+                } catch (SQLException e) {
+                    System.err.println("Error closing prepared statement: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    @Override
+    public void delete(int mealId) throws DatabaseException {
+        execute("Failed to delete meal", Access.WRITE, connection -> {
+            PreparedStatement preparedStatement = null;
+            try {
+                preparedStatement = begin(connection.prepareStatement(DELETE_MEAL), policy.getWriteTimeoutSeconds());
+                preparedStatement.setInt(1, mealId);
+                int affectedRows = preparedStatement.executeUpdate();
+                if (affectedRows == 0) {
+                    throw new DatabaseException("No meal found with ID: " + mealId);
+                }
+                logChange(connection, MealChange.MEAL_DELETED, mealId);
+                return null;
+            } finally {
+                try {
+                    if (preparedStatement != null) {
+                        preparedStatement.close();
+                    }
+                } catch (SQLException e) {
+                    System.err.println("Error closing prepared statement: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    @Override
+    public List<Meal> getAll() throws DatabaseException {
+        return hedgedRead("Failed to retrieve meals", connection -> {
+            List<Meal> meals = new ArrayList<>();
+            Statement statement = null;
+            ResultSet resultSet = null;
+            
+            try {
+                statement = begin(connection.createStatement(), policy.getReadTimeoutSeconds());
+                resultSet = statement.executeQuery(SELECT_MEALS);
+                
+                while (resultSet.next()) {
+                    Meal meal = new Meal(
+                        resultSet.getInt("meal_id"),
+                        resultSet.getString("meal_name"),
+                        resultSet.getInt("calories"),
+                        resultSet.getDouble("price"),
+                        resultSet.getInt("category_id"),
+                        resultSet.getString("category_name")
+                    );
+                    meals.add(meal);
+                }
+                return meals;
+            } finally {
+                try {
+                    if (resultSet != null) resultSet.close();
+                    if (statement != null) statement.close();
+                } catch (SQLException e) {
+                    System.err.println("Error closing resources: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    // First rows in the given order; used when the catalog is too large to load and sort locally
+    @Override
+    public void scanOrdered(MealColumn column, boolean ascending, int limit, MealRowSink sink, QueryHandle handle) throws DatabaseException {
+        // With the change log on, the caller replays changes from a cursor taken on the primary; a
+        // lagging replica could be missing changes at or below that cursor, and they would never arrive
+        Access access = changeLogNodeId != null ? Access.PRIMARY : Access.READ;
+        execute("Failed to retrieve meals", access, connection -> {
+            PreparedStatement preparedStatement = null;
+            ResultSet resultSet = null;
+            
+            try {
+                preparedStatement = begin(connection.prepareStatement(
+                    orderedQuery(column, ascending), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY),
+                    policy.getScanTimeoutSeconds());
+                handle.register(preparedStatement);
+                preparedStatement.setFetchSize(FETCH_SIZE);
+                preparedStatement.setInt(1, limit);
+                resultSet = preparedStatement.executeQuery();
+                drain(resultSet, sink);
+                return null;
+            } finally {
+                // Released before closing, so a late cancel cannot reach whatever runs next on this connection
+                handle.release();
+                try {
+                    if (resultSet != null) resultSet.close();
+                    if (preparedStatement != null) preparedStatement.close();
+                } catch (SQLException e) {
+                    System.err.println("Error closing resources: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    // Stops early when the worker is interrupted, e.g. because a newer load replaced this one
+    private static void drain(ResultSet resultSet, MealRowSink sink) throws SQLException, DatabaseException {
+        while (resultSet.next()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new DatabaseException("Query cancelled");
+            }
+            sink.accept(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getInt(3),
+                resultSet.getDouble(4),
+                resultSet.getInt(5)
+            );
+        }
+    }
+    
+    // Method to get all categories
+    @Override
+    public List<Category> getAllCategories() throws DatabaseException {
+        return hedgedRead("Failed to retrieve categories", connection -> {
+            List<Category> categories = new ArrayList<>();
+            Statement statement = null;
+            ResultSet resultSet = null;
+            
+            try {
+                statement = begin(connection.createStatement(), policy.getReadTimeoutSeconds());
+                resultSet = statement.executeQuery("SELECT * FROM meal_categories");
+                
+                while (resultSet.next()) {
+                    Category category = new Category(
+                        resultSet.getInt("category_id"),
+                        resultSet.getString("category_name"),
+                        resultSet.getString("description")
+                    );
+                    categories.add(category);
+                }
+                return categories;
+            } finally {
+                try {
+                    if (resultSet != null) resultSet.close();
+                    if (statement != null) statement.close();
+                } catch (SQLException e) {
+                    System.err.println("Error closing resources: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    // Method to insert a category
+    @Override
+    public void insertCategory(Category category) throws DatabaseException {
+        execute("Failed to insert category", Access.WRITE, connection -> {
+            PreparedStatement preparedStatement = null;
+            try {
+                preparedStatement = begin(connection.prepareStatement(
+                    "INSERT INTO meal_categories (category_id, category_name, description) VALUES (?, ?, ?)"),
+                    policy.getWriteTimeoutSeconds());
+                preparedStatement.setInt(1, category.getCategoryId());
+                preparedStatement.setString(2, category.getCategoryName());
+                preparedStatement.setString(3, category.getDescription());
+                preparedStatement.executeUpdate();
+                logChange(connection, MealChange.CATEGORY_INSERTED, category.getCategoryId());
+                return null;
+            } finally {
+                try {
+                    if (preparedStatement != null) {
+                        preparedStatement.close();
+                    }
+                } catch (SQLException e) {
+                    System.err.println("Error closing prepared statement: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    // From now on every write also appends to meal_change_log, in the same transaction
+    public void enableChangeLog(String nodeId) {
+        this.changeLogNodeId = nodeId;
+    }
+    
+    public boolean isChangeLogEnabled() {
+        return changeLogNodeId != null;
+    }
+    
+    private void logChange(Connection connection, char operation, int entityId) throws SQLException {
+        String nodeId = changeLogNodeId;
+        if (nodeId == null) {
+            return;
+        }
+        try (PreparedStatement preparedStatement = begin(connection.prepareStatement(
+                "INSERT INTO meal_change_log (entity_id, operation, node_id) VALUES (?, ?, ?)"),
+                policy.getWriteTimeoutSeconds())) {
+            preparedStatement.setInt(1, entityId);
+            preparedStatement.setString(2, String.valueOf(operation));
+            preparedStatement.setString(3, nodeId);
+            preparedStatement.executeUpdate();
+        }
+    }
+    
+    // Change-log reads go to the primary so the log and the rows it points at come from one server
+    @Override
+    public long latestChangeSeq() throws DatabaseException {
+        return execute("Failed to read change log", Access.PRIMARY, connection -> {
+            try (Statement statement = begin(connection.createStatement(), policy.getReadTimeoutSeconds());
+                 ResultSet resultSet = statement.executeQuery(LATEST_CHANGE_SEQ)) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        });
+    }
+    
+    @Override
+    public List<MealChange> changesSince(long seq, int limit) throws DatabaseException {
+        return execute("Failed to read change log", Access.PRIMARY, connection -> {
+            try (PreparedStatement preparedStatement = begin(connection.prepareStatement(SELECT_CHANGES),
+                    policy.getReadTimeoutSeconds())) {
+                preparedStatement.setLong(1, seq);
+                preparedStatement.setInt(2, limit);
+                List<MealChange> changes = new ArrayList<>();
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        changes.add(new MealChange(resultSet.getLong(1), resultSet.getInt(2),
+                            resultSet.getString(3).charAt(0), resultSet.getString(4)));
+                    }
+                }
+                return changes;
+            }
+        });
+    }
+    
+    @Override
+    public List<Meal> getByIds(int[] mealIds) throws DatabaseException {
+        if (mealIds.length == 0) {
+            return new ArrayList<>();
+        }
+        return execute("Failed to retrieve meals", Access.PRIMARY, connection -> {
+            try (PreparedStatement preparedStatement = begin(connection.prepareStatement(byIdsQuery(mealIds.length)),
+                    policy.getReadTimeoutSeconds())) {
+                for (int i = 0; i < mealIds.length; i++) {
+                    preparedStatement.setInt(i + 1, mealIds[i]);
+                }
+                List<Meal> meals = new ArrayList<>();
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        meals.add(new Meal(resultSet.getInt(1), resultSet.getString(2), resultSet.getInt(3),
+                            resultSet.getDouble(4), resultSet.getInt(5), resultSet.getString(6)));
+                    }
+                }
+                return meals;
+            }
+        });
+    }
+    
+    @Override
+    public int trimChangeLog(int retentionHours) throws DatabaseException {
+        return execute("Failed to trim change log", Access.PRIMARY, connection -> {
+            try (PreparedStatement preparedStatement = begin(connection.prepareStatement(TRIM_CHANGE_LOG),
+                    policy.getWriteTimeoutSeconds())) {
+                preparedStatement.setInt(1, retentionHours);
+                return preparedStatement.executeUpdate();
+            }
+        });
+    }
+    
+    private void cancel(Thread worker) {
+        Statement statement = inFlight.get(worker);
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                System.err.println("Error cancelling statement: " + e.getMessage());
+            }
+        }
+    }
+    
+    // Applies the operation's deadline and registers the statement for cancellation
+    private <S extends Statement> S begin(S statement, int timeoutSeconds) throws SQLException {
+        statement.setQueryTimeout(timeoutSeconds);
+        inFlight.put(Thread.currentThread(), statement);
+        return statement;
+    }
+    
+    // Runs one operation behind the circuit breaker; write latency is recorded here, point reads in hedgedRead
+    private <T> T execute(String failureMessage, Access access, SqlWork<T> work) throws DatabaseException {
+        boolean trial = circuitBreaker.beforeCall();
+        long start = System.nanoTime();
+        boolean write = access == Access.WRITE;
+        Connection connection = null;
+        try {
+            connection = access == Access.READ ? router.forRead()
+                : access == Access.WRITE ? router.forTransaction() : router.forWrite();
+            T result = runOn(connection, write, work);
+            if (write) {
+                router.writeCompleted();
+            }
+            circuitBreaker.onSuccess();
+            if (write) {
+                writeLatency.record(System.nanoTime() - start);
+            }
+            return result;
+        } catch (SQLException e) {
+            // A cancelled statement or a constraint violation says nothing about the server
+            if (CircuitBreaker.isDegradation(e)) {
+                router.reportFailure(connection);
+            }
+            circuitBreaker.onFailure(e);
+            throw new DatabaseException(failureMessage, e);
+        } catch (DatabaseException e) {
+            // The database answered; the request itself was refused or cancelled
+            circuitBreaker.onSuccess();
+            throw e;
+        } finally {
+            if (trial) {
+                circuitBreaker.releaseTrial();
+            }
+            inFlight.remove(Thread.currentThread());
+        }
+    }
+    
+    // Writes hold the transaction connection's monitor for their whole transaction. Reads take it
+    // only when the router hands them that same connection, so they never run inside another
+    // thread's open transaction and never see its uncommitted change-log row.
+    private <T> T runOn(Connection connection, boolean write, SqlWork<T> work) throws SQLException, DatabaseException {
+        if (!write && !router.sharesTransactions(connection)) {
+            return work.run(connection);
+        }
+        synchronized (connection) {
+            return write && changeLogNodeId != null ? inTransaction(connection, work) : work.run(connection);
+        }
+    }
+    
+    // Called with the connection's monitor held
+    private static <T> T inTransaction(Connection connection, SqlWork<T> work) throws SQLException, DatabaseException {
+        connection.setAutoCommit(false);
+        try {
+            T result = work.run(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | DatabaseException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+    
+    // Starts a second attempt on another connection if the first has not answered after the
+    // observed p95 read latency; the first result wins and the other statement is cancelled
+    private <T> T hedgedRead(String failureMessage, SqlWork<T> work) throws DatabaseException {
+        if (!policy.isHedgedReads()) {
+            long start = System.nanoTime();
+            T result = execute(failureMessage, Access.READ, work);
+            pointReadLatency.record(System.nanoTime() - start);
+            return result;
+        }
+        boolean trial = circuitBreaker.beforeCall();
+        long start = System.nanoTime();
+        ExecutorCompletionService<T> race = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<T>> attempts = new ArrayList<>();
+        List<AtomicReference<Thread>> workers = new ArrayList<>();
+        List<Connection> connections = new ArrayList<>();
+        SQLException lastFailure;
+        try {
+            startAttempt(race, work, router.forRead(), attempts, workers, connections);
+            long hedgeAt = start + pointReadLatency.hedgeDelayNanos(policy.getHedgeDelayMillis());
+            boolean hedged = false;
+            int finished = 0;
+            while (true) {
+                Future<T> done = hedged ? race.take()
+                    : race.poll(Math.max(0, hedgeAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    hedged = true;
+                    startHedge(race, work, attempts, workers, connections);
+                    continue;
+                }
+                finished++;
+                try {
+                    T result = done.get();
+                    circuitBreaker.onSuccess();
+                    pointReadLatency.record(System.nanoTime() - start);
+                    return result;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DatabaseException) {
+                        circuitBreaker.onSuccess();
+                        throw (DatabaseException) cause;
+                    }
+                    if (!(cause instanceof SQLException)) {
+                        throw new DatabaseException(failureMessage, cause);
+                    }
+                    lastFailure = (SQLException) cause;
+                    if (CircuitBreaker.isDegradation(lastFailure)) {
+                        router.reportFailure(connections.get(attempts.indexOf(done)));
+                    }
+                    // A fast failure is retried on the other connection straight away
+                    if (!hedged) {
+                        hedged = true;
+                        startHedge(race, work, attempts, workers, connections);
+                    }
+                    if (finished == attempts.size()) {
+                        circuitBreaker.onFailure(lastFailure);
+                        throw new DatabaseException(failureMessage, lastFailure);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            circuitBreaker.onFailure(e);
+            throw new DatabaseException(failureMessage, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Query cancelled");
+        } finally {
+            if (trial) {
+                circuitBreaker.releaseTrial();
+            }
+            for (int i = 0; i < attempts.size(); i++) {
+                if (!attempts.get(i).isDone()) {
+                    Thread worker = workers.get(i).get();
+                    if (worker != null) {
+                        cancel(worker);
+                    }
+                    attempts.get(i).cancel(true);
+                }
+            }
+        }
+    }
+    
+    private <T> void startAttempt(ExecutorCompletionService<T> race, SqlWork<T> work, Connection connection,
+                                  List<Future<T>> attempts, List<AtomicReference<Thread>> workers,
+                                  List<Connection> connections) {
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        attempts.add(race.submit(() -> {
+            worker.set(Thread.currentThread());
+            try {
+                return runOn(connection, false, work);
+            } finally {
+                inFlight.remove(Thread.currentThread());
+                worker.set(null);
+            }
+        }));
+        workers.add(worker);
+        connections.add(connection);
+    }
+    
+    // Only hedges when the router offers a different connection than the ones already tried
+    private <T> void startHedge(ExecutorCompletionService<T> race, SqlWork<T> work, List<Future<T>> attempts,
+                                List<AtomicReference<Thread>> workers, List<Connection> connections) throws SQLException {
+        Connection other = router.forRead();
+        if (!connections.contains(other)) {
+            startAttempt(race, work, other, attempts, workers, connections);
+        }
+    }
+}
+
+// Deadlines and tail-latency settings for MealDatabaseService
+// One cancellable operation. Cancelling reaches the statement this operation registered and
+// nothing its thread runs afterwards; a cancel that comes before the statement is stops it at registration.
+class QueryHandle {
+    private Statement statement;
+    private boolean cancelled;
+    
+    synchronized void register(Statement statement) throws DatabaseException {
+        if (cancelled) {
+            throw new DatabaseException("Query cancelled");
+        }
+        this.statement = statement;
+    }
+    
+    synchronized void release() {
+        statement = null;
+    }
+    
+    // Holds the lock during Statement.cancel() so release(), and the close after it, wait for it
+    public synchronized void cancel() {
+        cancelled = true;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                System.err.println("Error cancelling statement: " + e.getMessage());
+            }
+        }
+    }
+}
+
+class QueryPolicy {
+    private final int readTimeoutSeconds;
+    private final int writeTimeoutSeconds;
+    private final int scanTimeoutSeconds;
+    private final boolean hedgedReads;
+    private final long hedgeDelayMillis;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+    
+    public QueryPolicy(int readTimeoutSeconds, int writeTimeoutSeconds, int scanTimeoutSeconds, boolean hedgedReads,
+                       long hedgeDelayMillis, int breakerFailureThreshold, long breakerOpenMillis) {
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.writeTimeoutSeconds = writeTimeoutSeconds;
+        this.scanTimeoutSeconds = scanTimeoutSeconds;
+        this.hedgedReads = hedgedReads;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+    
+    public static QueryPolicy defaults() {
+        return new QueryPolicy(10, 5, 120, false, 100, 5, 10_000);
+    }
+    
+    // meal.db.readTimeoutSeconds, meal.db.writeTimeoutSeconds, meal.db.scanTimeoutSeconds, meal.db.hedgedReads,
+    // meal.db.hedgeDelayMillis (used until enough reads are measured), meal.db.breakerFailures, meal.db.breakerOpenMillis
+    public static QueryPolicy fromSystemProperties() {
+        QueryPolicy defaults = defaults();
+        return new QueryPolicy(
+            Integer.getInteger("meal.db.readTimeoutSeconds", defaults.readTimeoutSeconds),
+            Integer.getInteger("meal.db.writeTimeoutSeconds", defaults.writeTimeoutSeconds),
+            Integer.getInteger("meal.db.scanTimeoutSeconds", defaults.scanTimeoutSeconds),
+            Boolean.getBoolean("meal.db.hedgedReads"),
+            Long.getLong("meal.db.hedgeDelayMillis", defaults.hedgeDelayMillis),
+            Integer.getInteger("meal.db.breakerFailures", defaults.breakerFailureThreshold),
+            Long.getLong("meal.db.breakerOpenMillis", defaults.breakerOpenMillis));
+    }
+    
+    public int getReadTimeoutSeconds() { return readTimeoutSeconds; }
+    public int getWriteTimeoutSeconds() { return writeTimeoutSeconds; }
+    public int getScanTimeoutSeconds() { return scanTimeoutSeconds; }
+    public boolean isHedgedReads() { return hedgedReads; }
+    public long getHedgeDelayMillis() { return hedgeDelayMillis; }
+    public int getBreakerFailureThreshold() { return breakerFailureThreshold; }
+    public long getBreakerOpenMillis() { return breakerOpenMillis; }
+}
+
+// Fails fast after repeated timeouts or connection errors, then lets one trial call through
+// once the open period has passed
+class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean open;
+    private boolean trialInProgress;
+    
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+    
+    // Returns true when this call is the half-open trial; the caller must then call releaseTrial() when done
+    public synchronized boolean beforeCall() throws DatabaseException {
+        if (!open) {
+            return false;
+        }
+        long remaining = openedAt + openNanos - System.nanoTime();
+        if (remaining > 0 || trialInProgress) {
+            throw new DatabaseException("Database is unavailable; retrying in " +
+                Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining)) + "s");
+        }
+        trialInProgress = true;
+        return true;
+    }
+    
+    // A trial that ended without a verdict on the database (a full catalog, a bug in the caller)
+    // lets the next call try again instead of failing fast forever
+    public synchronized void releaseTrial() {
+        trialInProgress = false;
+    }
+    
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        open = false;
+        trialInProgress = false;
+    }
+    
+    // Only failures that point at a degraded database count; constraint violations do not
+    public synchronized void onFailure(SQLException e) {
+        if (!isDegradation(e)) {
+            onSuccess();
+            return;
+        }
+        consecutiveFailures++;
+        if (trialInProgress || consecutiveFailures >= failureThreshold) {
+            open = true;
+            openedAt = System.nanoTime();
+            trialInProgress = false;
+        }
+    }
+    
+    public synchronized boolean isOpen() {
+        return open;
+    }
+    
+    static boolean isDegradation(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTimeoutException || e instanceof SQLTransientConnectionException
+            || e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException
+            || (state != null && state.startsWith("08"));
+    }
+}
+
+// Latencies of the most recent operations, for percentiles
+class LatencyTracker {
+    private static final int MIN_SAMPLES = 20;
+    
+    private final long[] samples;
+    private int next;
+    private int count;
+    
+    public LatencyTracker(int capacity) {
+        samples = new long[capacity];
+    }
+    
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+    
+    // Nanoseconds at the given quantile (0..1), or -1 before anything was recorded
+    public synchronized long percentile(double quantile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) Math.ceil(quantile * count) - 1)];
+    }
+    
+    // The p95 once enough reads are measured, otherwise the configured fallback
+    public long hedgeDelayNanos(long fallbackMillis) {
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return TimeUnit.MILLISECONDS.toNanos(fallbackMillis);
+            }
+        }
+        return percentile(0.95);
+    }
+    
+    public String summary() {
+        int samplesSeen;
+        synchronized (this) {
+            samplesSeen = count;
+        }
+        if (samplesSeen == 0) {
+            return "no samples";
+        }
+        return String.format("p50=%.1fms p95=%.1fms p99=%.1fms (n=%d)",
+            percentile(0.50) / 1e6, percentile(0.95) / 1e6, percentile(0.99) / 1e6, samplesSeen);
+    }
+}
+
+// Reports read latency percentiles with hedged reads off and on, using the meal.db.* settings.
+// Usage: java -Dmeal.db.replicas=... ReadLatencyBenchmark [reads]
+class ReadLatencyBenchmark {
+    public static void main(String[] args) throws Exception {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        QueryPolicy base = QueryPolicy.fromSystemProperties();
+        ReplicatedConnectionRouter router = ReplicatedConnectionRouter.fromSystemProperties();
+        try {
+            for (boolean hedged : new boolean[]{false, true}) {
+                QueryPolicy policy = new QueryPolicy(base.getReadTimeoutSeconds(), base.getWriteTimeoutSeconds(),
+                    base.getScanTimeoutSeconds(), hedged, base.getHedgeDelayMillis(),
+                    base.getBreakerFailureThreshold(), base.getBreakerOpenMillis());
+                MealDatabaseService service = new MealDatabaseService(router, policy);
+                for (int i = 0; i < reads; i++) {
+                    service.getAllCategories();
+                }
+                System.out.println((hedged ? "hedged:   " : "unhedged: ") + service.latencyReport());
+            }
+        } finally {
+            router.close();
+        }
+    }
+}
+
+// One row of meal_change_log
+class MealChange {
+    public static final char MEAL_INSERTED = 'I';
+    public static final char MEAL_DELETED = 'D';
+    public static final char CATEGORY_INSERTED = 'C';
+    
+    private final long seq;
+    private final int entityId;
+    private final char operation;
+    private final String nodeId;
+    
+    public MealChange(long seq, int entityId, char operation, String nodeId) {
+        this.seq = seq;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.nodeId = nodeId;
+    }
+    
+    public long getSeq() { return seq; }
+    public int getEntityId() { return entityId; }
+    public char getOperation() { return operation; }
+    public String getNodeId() { return nodeId; }
+}
+
+// The change-log reads ChangeLogPoller needs; MealDatabaseService implements them against meal_change_log
+interface ChangeLogSource {
+    long latestChangeSeq() throws DatabaseException;
+    List<MealChange> changesSince(long seq, int limit) throws DatabaseException;
+    List<Meal> getByIds(int[] mealIds) throws DatabaseException;
+    int trimChangeLog(int retentionHours) throws DatabaseException;
+}
+
+// Receives changes made by any app instance, on the poller thread
+interface MealChangeListener {
+    void mealsChanged(List<Meal> upserted, int[] deletedIds);
+    void categoriesChanged();
+}
+
+// Follows meal_change_log with a cursor and hands changes to the listener. Changes are
+// applied by re-reading the current rows, so seeing the same change twice is harmless.
+class ChangeLogPoller {
+    private static final int BATCH_SIZE = 500;
+    private static final long TRIM_INTERVAL_NANOS = TimeUnit.HOURS.toNanos(1);
+    
+    private final ChangeLogSource service;
+    private final MealChangeListener listener;
+    private final long pollMillis;
+    private final long gapTimeoutNanos;
+    private final int retentionHours;
+    private final ScheduledExecutorService scheduler;
+    // Every change up to the cursor has been delivered
+    private long cursor;
+    private final TreeSet<Long> deliveredAboveCursor = new TreeSet<>();
+    private long gapSeenAt = -1;
+    private long lastTrim = System.nanoTime();
+    
+    public ChangeLogPoller(ChangeLogSource service, MealChangeListener listener,
+                           long pollMillis, long gapTimeoutMillis, int retentionHours) {
+        this.service = service;
+        this.listener = listener;
+        this.pollMillis = pollMillis;
+        this.gapTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(gapTimeoutMillis);
+        this.retentionHours = retentionHours;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-log-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // meal.sync.pollMillis, meal.sync.gapTimeoutMillis, meal.sync.retentionHours
+    public static ChangeLogPoller fromSystemProperties(ChangeLogSource service, MealChangeListener listener) {
+        return new ChangeLogPoller(service, listener,
+            Long.getLong("meal.sync.pollMillis", 1000),
+            Long.getLong("meal.sync.gapTimeoutMillis", 10_000),
+            Integer.getInteger("meal.sync.retentionHours", 24));
+    }
+    
+    // Starts from the current end of the log; earlier changes are covered by the initial load
+    public void start() throws DatabaseException {
+        long latest = service.latestChangeSeq();
+        synchronized (this) {
+            cursor = latest;
+        }
+        scheduler.scheduleWithFixedDelay(this::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+    
+    public synchronized long getCursor() {
+        return cursor;
+    }
+    
+    // Delivers everything after seq again, e.g. onto a catalog that was loaded while changes arrived.
+    // Runs on the poller thread so the caller (usually the EDT) never waits for a poll in progress.
+    public void replayFrom(long seq) {
+        scheduler.execute(() -> {
+            synchronized (this) {
+                if (seq < cursor) {
+                    cursor = seq;
+                    deliveredAboveCursor.clear();
+                    gapSeenAt = -1;
+                }
+            }
+            pollQuietly();
+        });
+    }
+    
+    public void pollNow() {
+        scheduler.execute(this::pollQuietly);
+    }
+    
+    private void pollQuietly() {
+        try {
+            poll();
+            if (System.nanoTime() - lastTrim > TRIM_INTERVAL_NANOS) {
+                lastTrim = System.nanoTime();
+                service.trimChangeLog(retentionHours);
+            }
+        } catch (DatabaseException e) {
+            System.err.println("Change log poll failed: " + e.getMessage());
+        }
+    }
+    
+    // An AUTO_INCREMENT gap may be a transaction that has not committed yet, so the cursor waits
+    // at a gap for up to gapTimeout; changes beyond it are delivered once and remembered
+    synchronized void poll() throws DatabaseException {
+        List<MealChange> changes;
+        do {
+            changes = service.changesSince(cursor, BATCH_SIZE);
+            // Restored if delivery fails, so the batch is read again on the next poll
+            long savedCursor = cursor;
+            long savedGapSeenAt = gapSeenAt;
+            TreeSet<Long> savedDelivered = new TreeSet<>(deliveredAboveCursor);
+            Map<Integer, Character> lastMealOperation = new LinkedHashMap<>();
+            boolean categoriesChanged = false;
+            boolean blocked = false;
+            for (MealChange change : changes) {
+                long seq = change.getSeq();
+                boolean delivered = deliveredAboveCursor.contains(seq);
+                if (!blocked) {
+                    if (seq == cursor + 1 || gapExpired()) {
+                        cursor = seq;
+                        gapSeenAt = -1;
+                        deliveredAboveCursor.headSet(seq, true).clear();
+                    } else {
+                        blocked = true;
+                        if (gapSeenAt < 0) {
+                            gapSeenAt = System.nanoTime();
+                        }
+                    }
+                }
+                if (blocked) {
+                    deliveredAboveCursor.add(seq);
+                }
+                if (delivered) {
+                    continue;
+                }
+                if (change.getOperation() == MealChange.CATEGORY_INSERTED) {
+                    categoriesChanged = true;
+                } else {
+                    lastMealOperation.remove(change.getEntityId());
+                    lastMealOperation.put(change.getEntityId(), change.getOperation());
+                }
+            }
+            try {
+                deliver(lastMealOperation, categoriesChanged);
+            } catch (DatabaseException e) {
+                cursor = savedCursor;
+                gapSeenAt = savedGapSeenAt;
+                deliveredAboveCursor.clear();
+                deliveredAboveCursor.addAll(savedDelivered);
+                throw e;
+            }
+            if (blocked) {
+                return;
+            }
+        } while (changes.size() == BATCH_SIZE);
+    }
+    
+    private boolean gapExpired() {
+        return gapSeenAt >= 0 && System.nanoTime() - gapSeenAt > gapTimeoutNanos;
+    }
+    
+    // Inserted ids are re-read; an id that is gone by now counts as deleted
+    private void deliver(Map<Integer, Character> lastMealOperation, boolean categoriesChanged) throws DatabaseException {
+        if (categoriesChanged) {
+            listener.categoriesChanged();
+        }
+        if (lastMealOperation.isEmpty()) {
+            return;
+        }
+        int[] insertedIds = lastMealOperation.entrySet().stream()
+            .filter(entry -> entry.getValue() == MealChange.MEAL_INSERTED)
+            .mapToInt(Map.Entry::getKey).toArray();
+        List<Meal> upserted = service.getByIds(insertedIds);
+        Set<Integer> found = new HashSet<>();
+        for (Meal meal : upserted) {
+            found.add(meal.getMealId());
+        }
+        int[] deletedIds = lastMealOperation.keySet().stream()
+            .filter(id -> !found.contains(id)).mapToInt(Integer::intValue).toArray();
+        listener.mealsChanged(upserted, deletedIds);
+    }
+}
+
+// Drives ChangeLogPoller against an in-memory change log: rows that commit out of order, a gap
+// that never fills, a failed delivery and a replay. Needs no database; exits with status 1 on failure.
+// Usage: java ChangeLogPollerCheck
+class ChangeLogPollerCheck {
+    private static final long GAP_TIMEOUT_MILLIS = 200;
+    
+    // Rows become visible in whatever order the check commits them, like concurrent transactions
+    private static class InMemoryChangeLog implements ChangeLogSource {
+        private final TreeMap<Long, MealChange> changes = new TreeMap<>();
+        private final Map<Integer, Meal> meals = new HashMap<>();
+        private boolean failNextRead;
+        
+        synchronized void commitInsert(long seq, int mealId) {
+            meals.put(mealId, new Meal(mealId, "Meal " + mealId, 100, 1.0));
+            changes.put(seq, new MealChange(seq, mealId, MealChange.MEAL_INSERTED, "check"));
+        }
+        
+        synchronized void commitDelete(long seq, int mealId) {
+            meals.remove(mealId);
+            changes.put(seq, new MealChange(seq, mealId, MealChange.MEAL_DELETED, "check"));
+        }
+        
+        synchronized void commitCategory(long seq, int categoryId) {
+            changes.put(seq, new MealChange(seq, categoryId, MealChange.CATEGORY_INSERTED, "check"));
+        }
+        
+        synchronized void failNextRead() {
+            failNextRead = true;
+        }
+        
+        @Override
+        public synchronized long latestChangeSeq() {
+            return changes.isEmpty() ? 0 : changes.lastKey();
+        }
+        
+        @Override
+        public synchronized List<MealChange> changesSince(long seq, int limit) {
+            List<MealChange> result = new ArrayList<>();
+            for (MealChange change : changes.tailMap(seq, false).values()) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(change);
+            }
+            return result;
+        }
+        
+        @Override
+        public synchronized List<Meal> getByIds(int[] mealIds) throws DatabaseException {
+            if (failNextRead) {
+                failNextRead = false;
+                throw new DatabaseException("Simulated read failure");
+            }
+            List<Meal> result = new ArrayList<>();
+            for (int mealId : mealIds) {
+                Meal meal = meals.get(mealId);
+                if (meal != null) {
+                    result.add(meal);
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public int trimChangeLog(int retentionHours) {
+            return 0;
+        }
+    }
+    
+    // Everything the listener received since the last take()
+    private static class RecordingListener implements MealChangeListener {
+        private final List<Integer> upserted = new ArrayList<>();
+        private final List<Integer> deleted = new ArrayList<>();
+        private int categoryReloads;
+        
+        @Override
+        public synchronized void mealsChanged(List<Meal> meals, int[] deletedIds) {
+            for (Meal meal : meals) {
+                upserted.add(meal.getMealId());
+            }
+            for (int mealId : deletedIds) {
+                deleted.add(mealId);
+            }
+        }
+        
+        @Override
+        public synchronized void categoriesChanged() {
+            categoryReloads++;
+        }
+        
+        synchronized String take() {
+            String received = "upserted=" + upserted + " deleted=" + deleted + " categoryReloads=" + categoryReloads;
+            upserted.clear();
+            deleted.clear();
+            categoryReloads = 0;
+            return received;
+        }
+    }
+    
+    private static int failures;
+    
+    public static void main(String[] args) throws Exception {
+        InMemoryChangeLog log = new InMemoryChangeLog();
+        RecordingListener listener = new RecordingListener();
+        // Polls are driven by hand; the scheduled ones would not come before the check ends
+        ChangeLogPoller poller = new ChangeLogPoller(log, listener, TimeUnit.HOURS.toMillis(1), GAP_TIMEOUT_MILLIS, 24);
+        poller.start();
+        try {
+            log.commitInsert(1, 101);
+            log.commitInsert(2, 102);
+            poller.poll();
+            expect("in-order changes", listener.take(), "upserted=[101, 102] deleted=[] categoryReloads=0");
+            expect("cursor after in-order changes", poller.getCursor(), 2L);
+            
+            // Seq 3 belongs to a transaction that has not committed yet
+            log.commitInsert(4, 104);
+            poller.poll();
+            expect("change beyond a gap is delivered", listener.take(), "upserted=[104] deleted=[] categoryReloads=0");
+            expect("cursor waits at the gap", poller.getCursor(), 2L);
+            poller.poll();
+            expect("change beyond a gap is delivered once", listener.take(), "upserted=[] deleted=[] categoryReloads=0");
+            log.commitInsert(3, 103);
+            poller.poll();
+            expect("late commit fills the gap", listener.take(), "upserted=[103] deleted=[] categoryReloads=0");
+            expect("cursor passes the filled gap", poller.getCursor(), 4L);
+            
+            // Seq 5 was rolled back and never appears
+            log.commitInsert(6, 106);
+            poller.poll();
+            listener.take();
+            expect("cursor waits for a rolled-back seq", poller.getCursor(), 4L);
+            Thread.sleep(GAP_TIMEOUT_MILLIS * 2);
+            poller.poll();
+            expect("cursor skips the gap after the timeout", poller.getCursor(), 6L);
+            expect("no redelivery when the gap is skipped", listener.take(), "upserted=[] deleted=[] categoryReloads=0");
+            
+            log.commitInsert(7, 107);
+            log.failNextRead();
+            try {
+                poller.poll();
+                expect("failed delivery is reported", "no exception", "DatabaseException");
+            } catch (DatabaseException e) {
+                expect("cursor is restored after a failed delivery", poller.getCursor(), 6L);
+            }
+            poller.poll();
+            expect("failed delivery is retried", listener.take(), "upserted=[107] deleted=[] categoryReloads=0");
+            
+            log.commitDelete(8, 101);
+            log.commitCategory(9, 1);
+            poller.poll();
+            expect("delete and category change", listener.take(), "upserted=[] deleted=[101] categoryReloads=1");
+            
+            // Replays run on the poller thread
+            poller.replayFrom(0);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (poller.getCursor() != 9 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            expect("replay delivers every change again", listener.take(),
+                "upserted=[102, 103, 104, 106, 107] deleted=[101] categoryReloads=1");
+        } finally {
+            poller.stop();
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    private static void expect(String name, Object actual, Object expected) {
+        boolean passed = expected.equals(actual);
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "ok    " : "FAIL  ") + name + (passed ? "" : ": expected " + expected + ", got " + actual));
+    }
+}
+
+// Embedded store for standalone use: an append-only, checksummed log file
+// replayed into an in-memory primary-key index on startup
+class LogStructuredMealStore implements MealCatalog {
+    private static final byte PUT_MEAL = 1;
+    private static final byte DELETE_MEAL = 2;
+    private static final byte PUT_CATEGORY = 3;
+    
+    // Record layout: [int payloadLength][byte type][payload][long crc32(type + payload)]
+    private static final int HEADER_SIZE = 5;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+    // Replay reads through a buffer that always fits the largest record. It avoids memory
+    // mapping, because a live mapping makes truncate() and the compaction rename fail on Windows.
+    private static final int REPLAY_BUFFER_SIZE = 4 << 20;
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+    
+    private final Path path;
+    private final boolean syncOnWrite;
+    private final int compactionThreshold;
+    private final TreeMap<Integer, Meal> meals = new TreeMap<>();
+    private final TreeMap<Integer, Category> categories = new TreeMap<>();
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    private long writePosition;
+    private long deadRecords;
+    // After a failed automatic compaction, the next attempt waits until the dead records double
+    private long nextCompactionAt;
+    
+    public LogStructuredMealStore(Path path) throws DatabaseException {
+        this(path, true, DEFAULT_COMPACTION_THRESHOLD);
+    }
+    
+    public LogStructuredMealStore(Path path, boolean syncOnWrite, int compactionThreshold) throws DatabaseException {
+        this.path = path;
+        this.syncOnWrite = syncOnWrite;
+        this.compactionThreshold = compactionThreshold;
+        try {
+            lockExclusively();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            replay();
+        } catch (IOException e) {
+            close();
+            throw new DatabaseException("Failed to open meal store: " + path, e);
+        } catch (DatabaseException e) {
+            close();
+            throw e;
+        }
+    }
+    
+    // Each instance appends at its own write position, so two writers would overwrite each
+    // other's records. The lock lives on a sibling file because compaction replaces the log.
+    private void lockExclusively() throws IOException, DatabaseException {
+        Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+        lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        boolean locked;
+        try {
+            locked = lockChannel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            locked = false;
+        }
+        if (!locked) {
+            lockChannel.close();
+            throw new DatabaseException("Meal store is already open in another instance: " + path);
+        }
+    }
+    
+    // Rebuilds the index from the log; a torn tail is cut off at the last valid record
+    private void replay() throws IOException, DatabaseException {
+        long size = channel.size();
+        long position = 0;
+        long readPosition = 0;
+        ByteBuffer window = ByteBuffer.allocate(REPLAY_BUFFER_SIZE);
+        while (true) {
+            while (window.hasRemaining() && readPosition < size) {
+                int read = channel.read(window, readPosition);
+                if (read < 0) {
+                    break;
+                }
+                readPosition += read;
+            }
+            window.flip();
+            // The window is full or holds the rest of the file, so no progress means the end or a bad record
+            int consumed = replayWindow(window);
+            if (consumed == 0) {
+                break;
+            }
+            position += consumed;
+            window.position(consumed);
+            window.compact();
+        }
+        if (position < size) {
+            // A crash can only tear the last append; a bad record with valid ones after it is damage
+            // that truncating would make worse, so the file is left for the operator to inspect
+            if (validRecordAfter(position, size)) {
+                throw new DatabaseException("Meal store is corrupt at byte " + position
+                    + " and valid records follow; the file was left unchanged: " + path);
+            }
+            System.err.println("Meal store: discarding " + (size - position) + " bytes of invalid log tail");
+            channel.truncate(position);
+        }
+        writePosition = position;
+    }
+    
+    // Looks for a complete, checksummed record starting anywhere after the bad one
+    private boolean validRecordAfter(long badPosition, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(REPLAY_BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        long base = badPosition + 1;
+        while (size - base >= HEADER_SIZE + TRAILER_SIZE) {
+            window.clear();
+            long readPosition = base;
+            while (window.hasRemaining() && readPosition < size) {
+                int read = channel.read(window, readPosition);
+                if (read < 0) {
+                    break;
+                }
+                readPosition += read;
+            }
+            int limit = window.position();
+            int offset = 0;
+            for (; offset + HEADER_SIZE + TRAILER_SIZE <= limit; offset++) {
+                int length = window.getInt(offset);
+                byte type = window.get(offset + 4);
+                if (length < 0 || length > MAX_PAYLOAD_SIZE || type < PUT_MEAL || type > PUT_CATEGORY
+                        || base + offset + HEADER_SIZE + length + TRAILER_SIZE > size) {
+                    continue;
+                }
+                if (offset + HEADER_SIZE + length + TRAILER_SIZE > limit) {
+                    // The window ends inside this candidate; refill starting at it
+                    break;
+                }
+                crc.reset();
+                crc.update(window.array(), offset + 4, 1 + length);
+                if (crc.getValue() == window.getLong(offset + HEADER_SIZE + length)) {
+                    return true;
+                }
+            }
+            base += Math.max(offset, 1);
+        }
+        return false;
+    }
+    
+    // Returns the number of bytes taken up by complete, valid records in the window
+    private int replayWindow(ByteBuffer window) throws IOException {
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        while (window.remaining() >= HEADER_SIZE + TRAILER_SIZE) {
+            int length = window.getInt();
+            if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+                break;
+            }
+            if (window.remaining() < 1 + length + TRAILER_SIZE) {
+                break;
+            }
+            byte[] record = new byte[1 + length];
+            window.get(record);
+            long checksum = window.getLong();
+            crc.reset();
+            crc.update(record);
+            if (crc.getValue() != checksum) {
+                break;
+            }
+            apply(record);
+            offset = window.position();
+        }
+        return offset;
+    }
+    
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+        switch (record[0]) {
+            case PUT_MEAL:
+                Meal meal = new Meal(in.readInt(), readNullableString(in), in.readInt(), in.readDouble());
+                meal.setCategoryId(in.readInt());
+                if (meals.put(meal.getMealId(), meal) != null) {
+                    deadRecords++;
+                }
+                break;
+            case DELETE_MEAL:
+                if (meals.remove(in.readInt()) != null) {
+                    deadRecords++;
+                }
+                deadRecords++;
+                break;
+            case PUT_CATEGORY:
+                Category category = new Category(in.readInt(), readNullableString(in), readNullableString(in));
+                if (categories.put(category.getCategoryId(), category) != null) {
+                    deadRecords++;
+                }
+                break;
+            default:
+                throw new IOException("Unknown record type: " + record[0]);
+        }
+    }
+    
+    @Override
+    public synchronized void insert(Meal meal) throws DatabaseException {
+        ensureOpen();
+        if (meals.containsKey(meal.getMealId())) {
+            throw new DatabaseException("Failed to insert meal", duplicateEntry(meal.getMealId()));
+        }
+        try {
+            append(encodeMeal(meal));
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to insert meal", e);
+        }
+        Meal stored = new Meal(meal.getMealId(), meal.getMealName(), meal.getCalories(), meal.getPrice());
+        stored.setCategoryId(meal.getCategoryId());
+        meals.put(stored.getMealId(), stored);
+        compactIfNeeded();
+    }
+    
+    @Override
+    public synchronized void delete(int mealId) throws DatabaseException {
+        ensureOpen();
+        if (!meals.containsKey(mealId)) {
+            throw new DatabaseException("No meal found with ID: " + mealId);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DELETE_MEAL);
+            out.writeInt(mealId);
+            append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to delete meal", e);
+        }
+        meals.remove(mealId);
+        deadRecords += 2;
+        compactIfNeeded();
+    }
+    
+    // Same shape as the JDBC LEFT JOIN: meals in primary-key order, category name may be null
+    @Override
+    public synchronized List<Meal> getAll() throws DatabaseException {
+        ensureOpen();
+        List<Meal> result = new ArrayList<>(meals.size());
+        for (Meal meal : meals.values()) {
+            Category category = categories.get(meal.getCategoryId());
+            result.add(new Meal(meal.getMealId(), meal.getMealName(), meal.getCalories(), meal.getPrice(),
+                meal.getCategoryId(), category != null ? category.getCategoryName() : null));
+        }
+        return result;
+    }
+    
+    @Override
+    public synchronized void scanOrdered(MealColumn column, boolean ascending, int limit, MealRowSink sink, QueryHandle handle) throws DatabaseException {
+        List<Meal> ordered = getAll();
+        Comparator<Meal> comparator;
+        switch (column) {
+            case MEAL_NAME:
+                comparator = Comparator.comparing(Meal::getMealName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+                break;
+            case CATEGORY:
+                comparator = Comparator.comparing(Meal::getCategoryName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+                break;
+            case CALORIES:
+                comparator = Comparator.comparingInt(Meal::getCalories);
+                break;
+            case PRICE:
+                comparator = Comparator.comparingDouble(Meal::getPrice);
+                break;
+            default:
+                comparator = Comparator.comparingInt(Meal::getMealId);
+                break;
+        }
+        // Same tie-break as the JDBC query: meal_id in the direction of the sort
+        comparator = comparator.thenComparingInt(Meal::getMealId);
+        ordered.sort(ascending ? comparator : comparator.reversed());
+        for (Meal meal : ordered.subList(0, Math.min(limit, ordered.size()))) {
+            sink.accept(meal.getMealId(), meal.getMealName(), meal.getCalories(), meal.getPrice(), meal.getCategoryId());
+        }
+    }
+    
+    @Override
+    public synchronized List<Category> getAllCategories() throws DatabaseException {
+        ensureOpen();
+        List<Category> result = new ArrayList<>(categories.size());
+        for (Category category : categories.values()) {
+            result.add(new Category(category.getCategoryId(), category.getCategoryName(), category.getDescription()));
+        }
+        return result;
+    }
+    
+    @Override
+    public synchronized void insertCategory(Category category) throws DatabaseException {
+        ensureOpen();
+        if (categories.containsKey(category.getCategoryId())) {
+            throw new DatabaseException("Failed to insert category", duplicateEntry(category.getCategoryId()));
+        }
+        try {
+            append(encodeCategory(category));
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to insert category", e);
+        }
+        categories.put(category.getCategoryId(),
+            new Category(category.getCategoryId(), category.getCategoryName(), category.getDescription()));
+    }
+    
+    // Rewrites the log with only the live records and atomically swaps it in
+    public synchronized void compact() throws DatabaseException {
+        ensureOpen();
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Category category : categories.values()) {
+                    writeRecord(out, encodeCategory(category));
+                }
+                for (Meal meal : meals.values()) {
+                    writeRecord(out, encodeMeal(meal));
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writePosition = channel.size();
+            deadRecords = 0;
+            nextCompactionAt = 0;
+        } catch (IOException e) {
+            reopenAfterFailedCompaction();
+            throw new DatabaseException("Failed to compact meal store", e);
+        }
+    }
+    
+    public synchronized void close() {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing meal store: " + e.getMessage());
+            }
+        }
+        if (lockChannel != null && lockChannel.isOpen()) {
+            try {
+                // Closing the channel releases the lock
+                lockChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error releasing meal store lock: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void reopenAfterFailedCompaction() {
+        if (!channel.isOpen()) {
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                writePosition = channel.size();
+            } catch (IOException e) {
+                System.err.println("Error reopening meal store: " + e.getMessage());
+            }
+        }
+    }
+    
+    // Runs after a write has already reached the log, so a failure here must not fail that write
+    private void compactIfNeeded() {
+        if (deadRecords >= Math.max(compactionThreshold, nextCompactionAt) && deadRecords > meals.size() + categories.size()) {
+            try {
+                compact();
+            } catch (DatabaseException e) {
+                nextCompactionAt = deadRecords * 2;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.err.println("Meal store: compaction failed, retrying after " + nextCompactionAt
+                    + " dead records: " + cause);
+            }
+        }
+    }
+    
+    private void ensureOpen() throws DatabaseException {
+        if (channel == null || !channel.isOpen()) {
+            throw new DatabaseException("Meal store is closed: " + path);
+        }
+    }
+    
+    private void append(byte[] record) throws IOException {
+        channel.position(writePosition);
+        writePosition += writeRecord(channel, record);
+        if (syncOnWrite) {
+            channel.force(false);
+        }
+    }
+    
+    private static int writeRecord(FileChannel target, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + record.length + TRAILER_SIZE);
+        buffer.putInt(record.length - 1).put(record).putLong(crc.getValue()).flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return written;
+    }
+    
+    private static byte[] encodeMeal(Meal meal) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT_MEAL);
+        out.writeInt(meal.getMealId());
+        writeNullableString(out, meal.getMealName());
+        out.writeInt(meal.getCalories());
+        out.writeDouble(meal.getPrice());
+        out.writeInt(meal.getCategoryId());
+        return bytes.toByteArray();
+    }
+    
+    private static byte[] encodeCategory(Category category) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT_CATEGORY);
+        out.writeInt(category.getCategoryId());
+        writeNullableString(out, category.getCategoryName());
+        writeNullableString(out, category.getDescription());
+        return bytes.toByteArray();
+    }
+    
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    // Mirrors the constraint violation MySQL reports for a duplicate primary key
+    private static SQLException duplicateEntry(int id) {
+        return new SQLIntegrityConstraintViolationException("Duplicate entry '" + id + "' for key 'PRIMARY'", "23000", 1062);
+    }
+}
+
+// Reopens LogStructuredMealStore after a clean close, a torn last append, a corrupt record in the
+// middle of the log and compactions that succeed or fail. Works in a temporary directory and
+// exits with status 1 on failure.
+// Usage: java LogStructuredMealStoreCheck
+class LogStructuredMealStoreCheck {
+    private static int failures;
+    
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("meal-store-check");
+        Path log = dir.resolve("meals.log");
+        Path compactTarget = dir.resolve("meals.log.compact");
+        try {
+            LogStructuredMealStore store = new LogStructuredMealStore(log, false, Integer.MAX_VALUE);
+            store.insertCategory(new Category(1, "Breakfast", null));
+            for (int mealId = 1; mealId <= 3; mealId++) {
+                store.insert(new Meal(mealId, "Meal " + mealId, 100 * mealId, mealId));
+            }
+            store.delete(2);
+            try {
+                new LogStructuredMealStore(log, false, Integer.MAX_VALUE).close();
+                expect("second instance is refused", "opened", "DatabaseException");
+            } catch (DatabaseException e) {
+                expect("second instance is refused", "DatabaseException", "DatabaseException");
+            }
+            store.close();
+            
+            store = new LogStructuredMealStore(log, false, Integer.MAX_VALUE);
+            expect("reopen restores meals", mealIds(store), "[1, 3]");
+            expect("reopen restores categories", store.getAllCategories().size(), 1);
+            store.close();
+            
+            // A crash in the middle of an append leaves part of a record at the end of the file
+            long cleanSize = Files.size(log);
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 0, 0}));
+            }
+            store = new LogStructuredMealStore(log, false, Integer.MAX_VALUE);
+            expect("torn tail is cut off", Files.size(log), cleanSize);
+            expect("records before a torn tail survive", mealIds(store), "[1, 3]");
+            store.insert(new Meal(4, "Meal 4", 400, 4));
+            store.close();
+            store = new LogStructuredMealStore(log, false, Integer.MAX_VALUE);
+            expect("writes after a torn tail survive a reopen", mealIds(store), "[1, 3, 4]");
+            store.close();
+            
+            // A flipped bit in the first meal record, with valid records after it
+            byte[] original = Files.readAllBytes(log);
+            byte[] damaged = original.clone();
+            int firstMeal = indexOf(original, "Meal 1".getBytes(StandardCharsets.UTF_8));
+            damaged[firstMeal] ^= 0x01;
+            Files.write(log, damaged);
+            try {
+                new LogStructuredMealStore(log, false, Integer.MAX_VALUE).close();
+                expect("mid-file corruption refuses to open", "opened", "DatabaseException");
+            } catch (DatabaseException e) {
+                expect("mid-file corruption refuses to open", "DatabaseException", "DatabaseException");
+            }
+            expect("mid-file corruption leaves the file unchanged", Arrays.equals(Files.readAllBytes(log), damaged), true);
+            Files.write(log, original);
+            store = new LogStructuredMealStore(log, false, Integer.MAX_VALUE);
+            expect("a refused open releases the lock", mealIds(store), "[1, 3, 4]");
+            store.close();
+            
+            // Automatic compaction after enough inserts and deletes
+            store = new LogStructuredMealStore(log, false, 4);
+            boolean shrank = false;
+            for (int mealId = 100; mealId < 110; mealId++) {
+                store.insert(new Meal(mealId, "Meal " + mealId, 100, 1.0));
+                long before = Files.size(log);
+                store.delete(mealId);
+                shrank |= Files.size(log) < before;
+            }
+            expect("automatic compaction shrinks the log", shrank, true);
+            store.close();
+            store = new LogStructuredMealStore(log, false, 4);
+            expect("compacted log reopens", mealIds(store), "[1, 3, 4]");
+            
+            // A failed automatic compaction must not fail the write that triggered it
+            Files.createDirectory(compactTarget);
+            boolean writesSucceeded = true;
+            try {
+                for (int mealId = 200; mealId < 210; mealId++) {
+                    store.insert(new Meal(mealId, "Meal " + mealId, 100, 1.0));
+                    store.delete(mealId);
+                }
+            } catch (DatabaseException e) {
+                writesSucceeded = false;
+            }
+            expect("writes succeed while compaction fails", writesSucceeded, true);
+            try {
+                store.compact();
+                expect("explicit compaction reports its failure", "compacted", "DatabaseException");
+            } catch (DatabaseException e) {
+                expect("explicit compaction reports its failure", "DatabaseException", "DatabaseException");
+            }
+            Files.delete(compactTarget);
+            store.compact();
+            store.insert(new Meal(5, "Meal 5", 500, 5));
+            store.close();
+            store = new LogStructuredMealStore(log, false, 4);
+            expect("store recovers after a failed compaction", mealIds(store), "[1, 3, 4, 5]");
+            store.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    private static String mealIds(LogStructuredMealStore store) throws DatabaseException {
+        List<Integer> ids = new ArrayList<>();
+        for (Meal meal : store.getAll()) {
+            ids.add(meal.getMealId());
+        }
+        return ids.toString();
+    }
+    
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            if (Arrays.equals(haystack, i, i + needle.length, needle, 0, needle.length)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Record not found");
+    }
+    
+    private static void expect(String name, Object actual, Object expected) {
+        boolean passed = expected.equals(actual);
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "ok    " : "FAIL  ") + name + (passed ? "" : ": expected " + expected + ", got " + actual));
+    }
+}
+
+// Compares insert and scan throughput of the embedded store against the JDBC service.
+// Usage: java MealStoreBenchmark [rows] [jdbcUrl user password]
+class MealStoreBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        
+        Path logFile = Files.createTempFile("meal-bench", ".log");
+        try {
+            LogStructuredMealStore store = new LogStructuredMealStore(logFile, false, Integer.MAX_VALUE);
+            run("log store (no fsync)", store, rows);
+            store.close();
+            
+            long start = System.nanoTime();
+            LogStructuredMealStore reopened = new LogStructuredMealStore(logFile);
+            System.out.printf("log store replay: %d rows in %.1f ms%n", reopened.getAll().size(), (System.nanoTime() - start) / 1e6);
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(logFile);
+        }
+        
+        if (args.length >= 4) {
+            try (Connection connection = DriverManager.getConnection(args[1], args[2], args[3])) {
+                MealDatabaseService service = new MealDatabaseService(connection);
+                run("jdbc", service, rows);
+                for (int i = 0; i < rows; i++) {
+                    service.delete(BENCH_ID_BASE + i);
+                }
+            }
+        }
+    }
+    
+    // Ids well away from anything entered through the UI
+    private static final int BENCH_ID_BASE = 1_000_000_000;
+    
+    private static void run(String label, DatabaseOperations<Meal> store, int rows) throws DatabaseException {
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            store.insert(new Meal(BENCH_ID_BASE + i, "Meal " + i, 200 + i % 800, 5 + (i % 100) / 10.0));
+        }
+        double insertSeconds = (System.nanoTime() - start) / 1e9;
+        
+        start = System.nanoTime();
+        int scanned = store.getAll().size();
+        double scanSeconds = (System.nanoTime() - start) / 1e9;
+        
+        System.out.printf("%s: insert %.0f rows/s, scan %.0f rows/s (%d rows)%n",
+            label, rows / insertSeconds, scanned / scanSeconds, scanned);
+    }
+}
+
+// Meal table columns in display order, with the expression each one is ordered by in SQL
+enum MealColumn {
+    MEAL_ID("m.meal_id"),
+    MEAL_NAME("m.meal_name"),
+    CATEGORY("c.category_name"),
+    CALORIES("m.calories"),
+    PRICE("m.price");
+    
+    private final String orderBy;
+    
+    MealColumn(String orderBy) {
+        this.orderBy = orderBy;
+    }
+    
+    public String getOrderBy() { return orderBy; }
+}
+
+// Versioned schema for the meal_plan database. MySQL commits DDL implicitly, so every
+// step is written to be safe to re-run against a partially migrated or hand-made schema.
+class SchemaMigrator {
+    // First version that has meal_change_log
+    public static final int CHANGE_LOG_VERSION = 4;
+    private static final String LOCK_NAME = "meal_plan_schema";
+    
+    private final Connection connection;
+    
+    public SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+    
+    // One step of the schema history
+    private interface Migration {
+        void apply() throws SQLException;
+    }
+    
+    private Migration[] migrations() {
+        return new Migration[]{
+            // 1: base tables
+            () -> {
+                execute("CREATE TABLE IF NOT EXISTS meal_categories (" +
+                        "category_id INT NOT NULL PRIMARY KEY, " +
+                        "category_name VARCHAR(100) NOT NULL, " +
+                        "description VARCHAR(255))");
+                execute("CREATE TABLE IF NOT EXISTS meals (" +
+                        "meal_id INT NOT NULL PRIMARY KEY, " +
+                        "meal_name VARCHAR(50) NOT NULL, " +
+                        "calories INT NOT NULL, " +
+                        "price DECIMAL(10, 2) NOT NULL, " +
+                        "category_id INT NULL)");
+            },
+            // 2: secondary indexes for the join, range filters and server-side ordering
+            () -> {
+                createIndexIfMissing("meals", "idx_meals_category", "category_id");
+                createIndexIfMissing("meals", "idx_meals_calories", "calories");
+                createIndexIfMissing("meals", "idx_meals_price", "price");
+                createIndexIfMissing("meals", "idx_meals_name", "meal_name");
+            },
+            // 3: foreign key; 0 and dangling ids become NULL ("Uncategorized") first
+            () -> {
+                if (!foreignKeyExists("meals", "category_id", "meal_categories")) {
+                    execute("ALTER TABLE meals MODIFY category_id INT NULL");
+                    execute("UPDATE meals m LEFT JOIN meal_categories c ON m.category_id = c.category_id " +
+                            "SET m.category_id = NULL WHERE c.category_id IS NULL");
+                    execute("ALTER TABLE meals ADD CONSTRAINT fk_meals_category FOREIGN KEY (category_id) " +
+                            "REFERENCES meal_categories (category_id) ON DELETE SET NULL");
+                }
+            },
+            // 4: change log that other app instances follow to keep their caches current
+            () -> execute("CREATE TABLE IF NOT EXISTS meal_change_log (" +
+                          "seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+                          "entity_id INT NOT NULL, " +
+                          "operation CHAR(1) NOT NULL, " +
+                          "node_id VARCHAR(64) NOT NULL, " +
+                          "changed_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), " +
+                          "INDEX idx_change_log_time (changed_at))")
+        };
+    }
+    
+    public int getLatestVersion() {
+        return migrations().length;
+    }
+    
+    // Applies every migration newer than the recorded version; returns the resulting version
+    public int migrate() throws DatabaseException {
+        try {
+            acquireLock();
+            try {
+                execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        "version INT NOT NULL PRIMARY KEY, " +
+                        "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+                Migration[] migrations = migrations();
+                int version = currentVersion();
+                while (version < migrations.length) {
+                    migrations[version].apply();
+                    version++;
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(
+                            "INSERT INTO schema_version (version) VALUES (?)")) {
+                        preparedStatement.setInt(1, version);
+                        preparedStatement.executeUpdate();
+                    }
+                    System.out.println("Applied schema migration " + version);
+                }
+                return version;
+            } finally {
+                releaseLock();
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to migrate database schema", e);
+        }
+    }
+    
+    private int currentVersion() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+    
+    // Serialises migrations when several app instances start against the same database
+    private void acquireLock() throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT GET_LOCK(?, 30)")) {
+            preparedStatement.setString(1, LOCK_NAME);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for schema lock " + LOCK_NAME);
+                }
+            }
+        }
+    }
+    
+    private void releaseLock() {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            preparedStatement.setString(1, LOCK_NAME);
+            preparedStatement.executeQuery().close();
+        } catch (SQLException e) {
+            System.err.println("Error releasing schema lock: " + e.getMessage());
+        }
+    }
+    
+    // Any existing index that leads with the column counts, whatever it was named by hand
+    private void createIndexIfMissing(String table, String indexName, String column) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.statistics " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ? AND seq_in_index = 1")) {
+            preparedStatement.setString(1, table);
+            preparedStatement.setString(2, column);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return;
+                }
+            }
+        }
+        execute("CREATE INDEX " + indexName + " ON " + table + " (" + column + ")");
+    }
+    
+    private boolean foreignKeyExists(String table, String column, String referencedTable) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.key_column_usage " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ? AND referenced_table_name = ?")) {
+            preparedStatement.setString(1, table);
+            preparedStatement.setString(2, column);
+            preparedStatement.setString(3, referencedTable);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+    
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
+
+// A query from MealDatabaseService with sample parameters, as handed to EXPLAIN
+class ExplainedQuery {
+    private final String name;
+    private final String sql;
+    private final Object[] parameters;
+    private final boolean fullScanExpected;
+    
+    // fullScanExpected: the query reads every row, so only its first table may be scanned
+    public ExplainedQuery(String name, String sql, boolean fullScanExpected, Object... parameters) {
+        this.name = name;
+        this.sql = sql;
+        this.fullScanExpected = fullScanExpected;
+        this.parameters = parameters;
+    }
+    
+    public String getName() { return name; }
+    public String getSql() { return sql; }
+    public Object[] getParameters() { return parameters; }
+    public boolean isFullScanExpected() { return fullScanExpected; }
+}
+
+// Runs EXPLAIN over the service's queries and reports tables that are read without an index.
+// Plans depend on table statistics, so results are only meaningful on realistically sized data.
+// Usage: java QueryPlanChecker jdbcUrl user password
+class QueryPlanChecker {
+    private final Connection connection;
+    
+    public QueryPlanChecker(Connection connection) {
+        this.connection = connection;
+    }
+    
+    // Returns one line per offending table access; empty when every query uses an index
+    public List<String> check(List<ExplainedQuery> queries) throws DatabaseException {
+        List<String> problems = new ArrayList<>();
+        for (ExplainedQuery query : queries) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + query.getSql())) {
+                Object[] parameters = query.getParameters();
+                for (int i = 0; i < parameters.length; i++) {
+                    preparedStatement.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    boolean first = true;
+                    while (resultSet.next()) {
+                        String table = resultSet.getString("table");
+                        if (table == null) {
+                            // Nothing is read, e.g. MAX() over an index ("Select tables optimized away")
+                            continue;
+                        }
+                        String type = resultSet.getString("type");
+                        String key = resultSet.getString("key");
+                        String extra = resultSet.getString("Extra");
+                        boolean scanAllowed = first && query.isFullScanExpected();
+                        // A filesort means an ORDER BY ... LIMIT reads every row instead of the index order
+                        boolean filesort = extra != null && extra.contains("Using filesort");
+                        if (!scanAllowed && (key == null || "ALL".equals(type) || filesort)) {
+                            problems.add(query.getName() + ": table " + table + " is read with type=" + type +
+                                         ", key=" + key + (extra != null ? " (" + extra + ")" : ""));
+                        }
+                        first = false;
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to explain query " + query.getName(), e);
+            }
+        }
+        return problems;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java QueryPlanChecker jdbcUrl user password");
+            System.exit(2);
+        }
+        try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+            List<String> problems = new QueryPlanChecker(connection).check(MealDatabaseService.explainedQueries());
+            for (String problem : problems) {
+                System.out.println("NO INDEX  " + problem);
+            }
+            System.out.println(problems.isEmpty() ? "All queries use an index." : problems.size() + " problem(s) found.");
+            System.exit(problems.isEmpty() ? 0 : 1);
+        }
+    }
+}
+
+// Receives one meal row at a time so large result sets never materialise as Meal objects
+interface MealRowSink {
+    void accept(int mealId, String mealName, int calories, double price, int categoryId);
+}
+
+// Open-addressing int -> int map with linear probing; avoids boxing for large key sets
+class IntIntHashMap {
+    private static final int FREE = Integer.MIN_VALUE;
+    
+    private int[] keys;
+    private int[] values;
+    private int size;
+    
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+    
+    public int size() { return size; }
+    
+    public int get(int key, int missingValue) {
+        int slot = find(key);
+        return keys[slot] == FREE ? missingValue : values[slot];
+    }
+    
+    public void put(int key, int value) {
+        checkKey(key);
+        int slot = find(key);
+        if (keys[slot] == FREE) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+    
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    public boolean remove(int key) {
+        int mask = keys.length - 1;
+        int slot = find(key);
+        if (keys[slot] == FREE) {
+            return false;
+        }
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == FREE) {
+                break;
+            }
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keys[slot] = FREE;
+        size--;
+        return true;
+    }
+    
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+    
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+    
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    
+    private static void checkKey(int key) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key not supported: " + key);
+        }
+    }
+}
+
+// Dictionary-encoded strings: each distinct value is stored once as UTF-8 in a direct buffer
+class StringArena {
+    public static final int NULL_CODE = -1;
+    private static final int CACHE_SIZE = 4096;
+    
+    private ByteBuffer bytes;
+    private int[] offsets = new int[1024];
+    private int count;
+    private int[] table = new int[2048]; // code + 1, 0 = empty
+    private final String[] decodeCache = new String[CACHE_SIZE];
+    private final int[] cacheCodes = new int[CACHE_SIZE];
+    private int[] ranks;
+    private int[] byRank;
+    private int rankedCount;
+    
+    public StringArena(int initialBytes) {
+        bytes = ByteBuffer.allocateDirect(Math.max(initialBytes, 1024));
+    }
+    
+    public int size() { return count; }
+    public long offHeapBytes() { return bytes.capacity(); }
+    
+    public int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int mask = table.length - 1;
+        int slot = hash(utf8, utf8.length) & mask;
+        while (table[slot] != 0) {
+            int code = table[slot] - 1;
+            if (matches(code, utf8)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int code = append(utf8);
+        table[slot] = code + 1;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return code;
+    }
+    
+    // Repeated lookups of the same code (e.g. table repaints) hit the cache instead of decoding again
+    public String decode(int code) {
+        if (code == NULL_CODE) {
+            return null;
+        }
+        int cacheSlot = code & (CACHE_SIZE - 1);
+        String cached = decodeCache[cacheSlot];
+        if (cached != null && cacheCodes[cacheSlot] == code) {
+            return cached;
+        }
+        byte[] utf8 = new byte[length(code)];
+        bytes.get(offsets[code], utf8);
+        String value = new String(utf8, StandardCharsets.UTF_8);
+        decodeCache[cacheSlot] = value;
+        cacheCodes[cacheSlot] = code;
+        return value;
+    }
+    
+    // Case-insensitive for ASCII, then by raw UTF-8 bytes; close to the server's default collation
+    public int compare(int leftCode, int rightCode) {
+        int leftStart = offsets[leftCode];
+        int rightStart = offsets[rightCode];
+        int leftLength = length(leftCode);
+        int rightLength = length(rightCode);
+        int common = Math.min(leftLength, rightLength);
+        int tieBreak = 0;
+        for (int i = 0; i < common; i++) {
+            byte left = bytes.get(leftStart + i);
+            byte right = bytes.get(rightStart + i);
+            if (left != right) {
+                int folded = Integer.compare(foldCase(left), foldCase(right));
+                if (folded != 0) {
+                    return folded;
+                }
+                if (tieBreak == 0) {
+                    tieBreak = Integer.compare(left & 0xFF, right & 0xFF);
+                }
+            }
+        }
+        return leftLength != rightLength ? Integer.compare(leftLength, rightLength) : tieBreak;
+    }
+    
+    // Sort rank of every code. A few strings added since the last call are ranked in place;
+    // the whole dictionary is sorted again only when many were added.
+    public int[] ranks() {
+        if (ranks == null || count - rankedCount > count / 64) {
+            byRank = new int[count];
+            for (int code = 0; code < count; code++) {
+                byRank[code] = code;
+            }
+            RowIndexSorter.sort(byRank, count, this::compare);
+            ranks = new int[count];
+            for (int rank = 0; rank < count; rank++) {
+                ranks[byRank[rank]] = rank;
+            }
+            rankedCount = count;
+        } else if (rankedCount < count) {
+            insertRanks();
+        }
+        return ranks;
+    }
+    
+    // Binary-searches the new codes into the rank order, merges them in with one pass and
+    // renumbers the ranks from the first insertion on
+    private void insertRanks() {
+        int added = count - rankedCount;
+        int[] fresh = new int[added];
+        for (int i = 0; i < added; i++) {
+            fresh[i] = rankedCount + i;
+        }
+        RowIndexSorter.sort(fresh, added, this::compare);
+        int[] positions = new int[added];
+        for (int i = 0; i < added; i++) {
+            int low = i > 0 ? positions[i - 1] : 0;
+            int high = rankedCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(byRank[mid], fresh[i]) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            positions[i] = low;
+        }
+        if (byRank.length < count) {
+            byRank = Arrays.copyOf(byRank, Math.max(count, byRank.length * 2));
+            ranks = Arrays.copyOf(ranks, byRank.length);
+        }
+        int to = count - 1;
+        int from = rankedCount - 1;
+        for (int i = added - 1; i >= 0; i--) {
+            while (from >= positions[i]) {
+                byRank[to--] = byRank[from--];
+            }
+            byRank[to--] = fresh[i];
+        }
+        for (int rank = positions[0]; rank < count; rank++) {
+            ranks[byRank[rank]] = rank;
+        }
+        rankedCount = count;
+    }
+    
+    private static int foldCase(byte value) {
+        int unsigned = value & 0xFF;
+        return unsigned >= 'A' && unsigned <= 'Z' ? unsigned + ('a' - 'A') : unsigned;
+    }
+    
+    private int length(int code) {
+        int end = code + 1 < count ? offsets[code + 1] : bytes.position();
+        return end - offsets[code];
+    }
+    
+    private boolean matches(int code, byte[] utf8) {
+        if (length(code) != utf8.length) {
+            return false;
+        }
+        int start = offsets[code];
+        for (int i = 0; i < utf8.length; i++) {
+            if (bytes.get(start + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private int append(byte[] utf8) {
+        if (bytes.remaining() < utf8.length) {
+            long needed = (long) bytes.position() + utf8.length;
+            long capacity = Math.max(needed, (long) bytes.capacity() * 2);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("String arena is full");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+            bytes.flip();
+            grown.put(bytes);
+            bytes = grown;
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count] = bytes.position();
+        bytes.put(utf8);
+        return count++;
+    }
+    
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        int mask = grown.length - 1;
+        byte[] scratch = new byte[0];
+        for (int code = 0; code < count; code++) {
+            int length = length(code);
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            bytes.get(offsets[code], scratch, 0, length);
+            int slot = hash(scratch, length) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = code + 1;
+        }
+        table = grown;
+    }
+    
+    private static int hash(byte[] data, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+}
+
+// Fixed-layout meal rows kept off the Java heap. Built on a worker thread, then owned by the EDT.
+class OffHeapMealCatalog implements MealRowSink {
+    // Row layout: meal_id int, calories int, price double, category_id int, name code int
+    private static final int ROW_SIZE = 24;
+    private static final int ID_OFFSET = 0;
+    private static final int CALORIES_OFFSET = 4;
+    private static final int PRICE_OFFSET = 8;
+    private static final int CATEGORY_OFFSET = 16;
+    private static final int NAME_OFFSET = 20;
+    
+    private ByteBuffer rows;
+    private int size;
+    private final StringArena names;
+    private final IntIntHashMap rowById;
+    
+    public OffHeapMealCatalog(int expectedRows) {
+        int capacity = Math.max(expectedRows, 16);
+        rows = ByteBuffer.allocateDirect(capacity * ROW_SIZE);
+        names = new StringArena(capacity * 16);
+        rowById = new IntIntHashMap(capacity);
+    }
+    
+    public int size() { return size; }
+    public long offHeapBytes() { return (long) rows.capacity() + names.offHeapBytes(); }
+    
+    @Override
+    public void accept(int mealId, String mealName, int calories, double price, int categoryId) {
+        int row = rowById.get(mealId, -1);
+        if (row < 0) {
+            if (size == rows.capacity() / ROW_SIZE) {
+                grow();
+            }
+            row = size++;
+            rowById.put(mealId, row);
+        }
+        int base = row * ROW_SIZE;
+        rows.putInt(base + ID_OFFSET, mealId);
+        rows.putInt(base + CALORIES_OFFSET, calories);
+        rows.putDouble(base + PRICE_OFFSET, price);
+        rows.putInt(base + CATEGORY_OFFSET, categoryId);
+        rows.putInt(base + NAME_OFFSET, names.encode(mealName));
+    }
+    
+    public void add(Meal meal) {
+        accept(meal.getMealId(), meal.getMealName(), meal.getCalories(), meal.getPrice(), meal.getCategoryId());
+    }
+    
+    public int rowOf(int mealId) {
+        return rowById.get(mealId, -1);
+    }
+    
+    // Moves the last row into the freed slot; returns that row's old index, or -1 if nothing moved
+    public int remove(int mealId) {
+        int row = rowById.get(mealId, -1);
+        if (row < 0) {
+            throw new IllegalArgumentException("No meal found with ID: " + mealId);
+        }
+        rowById.remove(mealId);
+        int last = --size;
+        if (row == last) {
+            return -1;
+        }
+        for (int i = 0; i < ROW_SIZE; i += 4) {
+            rows.putInt(row * ROW_SIZE + i, rows.getInt(last * ROW_SIZE + i));
+        }
+        rowById.put(rows.getInt(row * ROW_SIZE + ID_OFFSET), row);
+        return last;
+    }
+    
+    public int mealId(int row) { return rows.getInt(checkRow(row) * ROW_SIZE + ID_OFFSET); }
+    public int calories(int row) { return rows.getInt(checkRow(row) * ROW_SIZE + CALORIES_OFFSET); }
+    public double price(int row) { return rows.getDouble(checkRow(row) * ROW_SIZE + PRICE_OFFSET); }
+    public int categoryId(int row) { return rows.getInt(checkRow(row) * ROW_SIZE + CATEGORY_OFFSET); }
+    public int mealNameCode(int row) { return rows.getInt(checkRow(row) * ROW_SIZE + NAME_OFFSET); }
+    public String mealName(int row) { return names.decode(mealNameCode(row)); }
+    
+    // Sort ranks for meal name codes
+    public int[] stringRanks() {
+        return names.ranks();
+    }
+    
+    // Same order as stringRanks(), without ranking the whole dictionary; null names sort first
+    public int compareNames(int leftCode, int rightCode) {
+        if (leftCode == rightCode) {
+            return 0;
+        }
+        if (leftCode == StringArena.NULL_CODE || rightCode == StringArena.NULL_CODE) {
+            return leftCode == StringArena.NULL_CODE ? -1 : 1;
+        }
+        return names.compare(leftCode, rightCode);
+    }
+    
+    public MealView view() {
+        return new MealView();
+    }
+    
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return row;
+    }
+    
+    private void grow() {
+        long capacity = (long) rows.capacity() * 2;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Meal catalog is full");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+        rows.position(0).limit(size * ROW_SIZE);
+        grown.put(rows);
+        rows = grown;
+    }
+    
+    // Flyweight over one row; re-point it with at() instead of allocating a Meal per row
+    public class MealView {
+        private int row;
+        
+        public MealView at(int row) {
+            this.row = checkRow(row);
+            return this;
+        }
+        
+        public int getRow() { return row; }
+        public int getMealId() { return mealId(row); }
+        public String getMealName() { return mealName(row); }
+        public int getCalories() { return calories(row); }
+        public double getPrice() { return price(row); }
+        public int getCategoryId() { return categoryId(row); }
+    }
+}
+
+// Heap footprint and GC cost of List<Meal> versus OffHeapMealCatalog.
+// Usage: java -Xmx4g MealCatalogFootprintBenchmark [rows]
+class MealCatalogFootprintBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long checksum = measureList(rows) - measureCatalog(rows);
+        System.out.println("checksum " + checksum);
+    }
+    
+    // Each variant runs in its own frame so its data is unreachable once the method returns
+    private static long measureList(int rows) {
+        long before = usedHeapAfterGc();
+        long[] gcBefore = gcTotals();
+        List<Meal> meals = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            meals.add(new Meal(i, "Meal " + i, 200 + i % 800, 5 + (i % 100) / 10.0, i % 50, "Category " + (i % 50)));
+        }
+        report("List<Meal>", usedHeapAfterGc() - before, 0, gcBefore);
+        long sum = 0;
+        for (Meal meal : meals) {
+            sum += meal.getCalories();
+        }
+        return sum;
+    }
+    
+    private static long measureCatalog(int rows) {
+        long before = usedHeapAfterGc();
+        long[] gcBefore = gcTotals();
+        OffHeapMealCatalog catalog = new OffHeapMealCatalog(rows);
+        for (int i = 0; i < rows; i++) {
+            catalog.accept(i, "Meal " + i, 200 + i % 800, 5 + (i % 100) / 10.0, i % 50);
+        }
+        report("OffHeapMealCatalog", usedHeapAfterGc() - before, catalog.offHeapBytes(), gcBefore);
+        long sum = 0;
+        OffHeapMealCatalog.MealView view = catalog.view();
+        for (int row = 0; row < catalog.size(); row++) {
+            sum += view.at(row).getCalories();
+        }
+        return sum;
+    }
+    
+    private static void report(String label, long heapBytes, long offHeapBytes, long[] gcBefore) {
+        long[] gcAfter = gcTotals();
+        System.out.printf("%s: heap %.1f MB, off-heap %.1f MB, %d GCs, %d ms GC time%n", label,
+            heapBytes / 1048576.0, offHeapBytes / 1048576.0, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+    
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return new long[]{count, time};
+    }
+}
+
+// Compares two row indexes without boxing
+interface IntComparator {
+    int compare(int left, int right);
+}
+
+// Sorts int[] row permutations; int-keyed columns use a packed long sort, others a stable merge sort
+class RowIndexSorter {
+    private RowIndexSorter() {}
+    
+    // Packs (key, row) into one long so the whole sort runs on primitives; ties keep ascending row order
+    public static void sortByIntKey(int[] index, int length, IntUnaryOperator keyOf, boolean ascending) {
+        long[] packed = new long[length];
+        for (int i = 0; i < length; i++) {
+            int key = keyOf.applyAsInt(index[i]);
+            packed[i] = ((long) (ascending ? key : ~key) << 32) | (index[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < length; i++) {
+            index[i] = (int) packed[i];
+        }
+    }
+    
+    // Stable LSD radix sort on 64-bit keys, 16 bits per pass; used for columns that do not fit in an int
+    public static void sortByLongKey(int[] index, int length, IntToLongFunction keyOf, boolean ascending) {
+        long[] keys = new long[length];
+        for (int i = 0; i < length; i++) {
+            long key = keyOf.applyAsLong(index[i]);
+            // Flipping the sign bit makes unsigned digit order match signed order
+            keys[i] = (ascending ? key : ~key) ^ Long.MIN_VALUE;
+        }
+        long[] keyBuffer = new long[length];
+        int[] indexBuffer = new int[length];
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 64; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < length; i++) {
+                counts[(int) (keys[i] >>> shift) & 0xFFFF]++;
+            }
+            for (int digit = 0, total = 0; digit < counts.length; digit++) {
+                int count = counts[digit];
+                counts[digit] = total;
+                total += count;
+            }
+            for (int i = 0; i < length; i++) {
+                int slot = counts[(int) (keys[i] >>> shift) & 0xFFFF]++;
+                keyBuffer[slot] = keys[i];
+                indexBuffer[slot] = index[i];
+            }
+            long[] swapKeys = keys;
+            keys = keyBuffer;
+            keyBuffer = swapKeys;
+            System.arraycopy(indexBuffer, 0, index, 0, length);
+        }
+    }
+    
+    public static void sort(int[] index, int length, IntComparator comparator) {
+        int[] scratch = Arrays.copyOf(index, length);
+        mergeSort(scratch, index, 0, length, comparator);
+    }
+    
+    // Sorts src[from, to) into dst; both arrays start with the same contents
+    private static void mergeSort(int[] src, int[] dst, int from, int to, IntComparator comparator) {
+        int length = to - from;
+        if (length < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int value = dst[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(dst[j], value) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
+                }
+                dst[j + 1] = value;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(dst, src, from, mid, comparator);
+        mergeSort(dst, src, mid, to, comparator);
+        if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, from, dst, from, length);
+            return;
+        }
+        for (int i = from, left = from, right = mid; i < to; i++) {
+            if (right >= to || (left < mid && comparator.compare(src[left], src[right]) <= 0)) {
+                dst[i] = src[left++];
+            } else {
+                dst[i] = src[right++];
+            }
+        }
+    }
+}
+
+// Table model over an OffHeapMealCatalog; sorting permutes an int[] of row indexes
+class MealTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Meal ID", "Meal Name", "Category", "Calories", "Price"};
+    private static final MealColumn[] COLUMNS = MealColumn.values();
+    
+    // Formatted numbers for recently painted rows, so repainting a visible row allocates nothing
+    private static final int TEXT_CACHE_SLOTS = 1024;
+    private final int[] textRows = new int[3 * TEXT_CACHE_SLOTS];
+    private final String[] texts = new String[3 * TEXT_CACHE_SLOTS];
+    
+    private final CategoryDirectory categories;
+    private OffHeapMealCatalog catalog = new OffHeapMealCatalog(16);
+    private int[] viewToRow = new int[0];
+    // Inverse of viewToRow, indexed by catalog row
+    private int[] viewOfRow = new int[0];
+    private int rowCount;
+    private MealColumn sortColumn;
+    private boolean ascending = true;
+    private boolean partial;
+    
+    public MealTableModel(CategoryDirectory categories) {
+        this.categories = categories;
+        Arrays.fill(textRows, -1);
+    }
+    
+    // A partial catalog arrives already ordered by the server, so it is shown as delivered
+    public void setCatalog(OffHeapMealCatalog catalog, boolean partial) {
+        this.catalog = catalog;
+        this.partial = partial;
+        clearTextCache();
+        rowCount = catalog.size();
+        viewToRow = new int[rowCount];
+        viewOfRow = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            viewToRow[i] = i;
+            viewOfRow[i] = i;
+        }
+        if (!partial && sortColumn != null) {
+            applySort();
+        }
+        fireTableDataChanged();
+    }
+    
+    public boolean isPartial() { return partial; }
+    public MealColumn getSortColumn() { return sortColumn; }
+    public boolean isAscending() { return ascending; }
+    
+    // Records the order for the next server-side load without touching the current rows
+    public void setSortOrder(MealColumn column, boolean ascending) {
+        this.sortColumn = column;
+        this.ascending = ascending;
+    }
+    
+    public void sortBy(MealColumn column, boolean ascending) {
+        setSortOrder(column, ascending);
+        applySort();
+        fireTableDataChanged();
+    }
+    
+    // Category names are looked up on display, so a new directory only needs a repaint
+    public void categoriesChanged() {
+        if (!partial && sortColumn == MealColumn.CATEGORY) {
+            applySort();
+        }
+        if (rowCount > 0) {
+            fireTableRowsUpdated(0, rowCount - 1);
+        }
+    }
+    
+    public int getMealIdAt(int viewRow) { return catalog.mealId(viewToRow[viewRow]); }
+    public String getMealNameAt(int viewRow) { return catalog.mealName(viewToRow[viewRow]); }
+    
+    public void removeMeal(int mealId) {
+        int row = catalog.rowOf(mealId);
+        if (row < 0) {
+            return;
+        }
+        clearTextCache();
+        int viewRow = viewOfRow[row];
+        removeRow(mealId, row);
+        System.arraycopy(viewToRow, viewRow + 1, viewToRow, viewRow, rowCount - viewRow - 1);
+        rowCount--;
+        indexView(viewRow, rowCount);
+        fireTableRowsDeleted(viewRow, viewRow);
+    }
+    
+    // Applies changes from other app instances without re-sorting: deleted rows are squeezed out
+    // and new or changed rows are binary-searched into the current order, in one pass over the view.
+    // A partial view keeps the server's order the same way.
+    public void applyChanges(List<Meal> upserted, int[] deletedIds) {
+        clearTextCache();
+        int firstChanged = rowCount;
+        boolean holes = false;
+        for (int mealId : deletedIds) {
+            int row = catalog.rowOf(mealId);
+            if (row >= 0) {
+                firstChanged = Math.min(firstChanged, viewOfRow[row]);
+                viewToRow[viewOfRow[row]] = -1;
+                holes = true;
+                removeRow(mealId, row);
+            }
+        }
+        int[] placed = new int[upserted.size()];
+        int placedCount = 0;
+        for (Meal meal : upserted) {
+            int row = catalog.rowOf(meal.getMealId());
+            if (row >= 0) {
+                // Its sort key may have changed, so it is placed again like a new row
+                firstChanged = Math.min(firstChanged, viewOfRow[row]);
+                viewToRow[viewOfRow[row]] = -1;
+                holes = true;
+            }
+            catalog.add(meal);
+            placed[placedCount++] = catalog.rowOf(meal.getMealId());
+        }
+        if (holes) {
+            int kept = firstChanged;
+            for (int viewRow = firstChanged; viewRow < rowCount; viewRow++) {
+                if (viewToRow[viewRow] >= 0) {
+                    viewToRow[kept++] = viewToRow[viewRow];
+                }
+            }
+            rowCount = kept;
+        }
+        if (placedCount > 0) {
+            RowIndexSorter.sort(placed, placedCount, this::compareRows);
+            int[] positions = new int[placedCount];
+            for (int i = 0; i < placedCount; i++) {
+                positions[i] = Math.max(insertionPoint(placed[i]), i > 0 ? positions[i - 1] : 0);
+            }
+            firstChanged = Math.min(firstChanged, positions[0]);
+            if (viewToRow.length < rowCount + placedCount) {
+                viewToRow = Arrays.copyOf(viewToRow, Math.max(16, (rowCount + placedCount) * 2));
+            }
+            // Merges from the back, so each existing entry moves at most once
+            int to = rowCount + placedCount - 1;
+            int from = rowCount - 1;
+            for (int i = placedCount - 1; i >= 0; i--) {
+                while (from >= positions[i]) {
+                    viewToRow[to--] = viewToRow[from--];
+                }
+                viewToRow[to--] = placed[i];
+            }
+            rowCount += placedCount;
+        }
+        if (viewOfRow.length < catalog.size()) {
+            viewOfRow = Arrays.copyOf(viewOfRow, Math.max(16, catalog.size() * 2));
+        }
+        indexView(firstChanged, rowCount);
+        fireTableDataChanged();
+    }
+    
+    // The last catalog row moves into the freed slot and keeps its place in the view
+    private void removeRow(int mealId, int row) {
+        int moved = catalog.remove(mealId);
+        if (moved >= 0) {
+            int movedView = viewOfRow[moved];
+            viewToRow[movedView] = row;
+            viewOfRow[row] = movedView;
+        }
+    }
+    
+    private void indexView(int from, int to) {
+        for (int viewRow = from; viewRow < to; viewRow++) {
+            viewOfRow[viewToRow[viewRow]] = viewRow;
+        }
+    }
+    
+    // First view position whose row sorts after the given one
+    private int insertionPoint(int row) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareRows(viewToRow[mid], row) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // View order as the server query defines it: the sort column, then meal_id, both in the
+    // current direction. An unsorted view is in meal_id order, as loaded.
+    private int compareRows(int left, int right) {
+        OffHeapMealCatalog rows = catalog;
+        int order = 0;
+        if (sortColumn != null) {
+            switch (sortColumn) {
+                case MEAL_NAME:
+                    order = rows.compareNames(rows.mealNameCode(left), rows.mealNameCode(right));
+                    break;
+                case CATEGORY:
+                    order = Integer.compare(categories.rankOf(rows.categoryId(left)), categories.rankOf(rows.categoryId(right)));
+                    break;
+                case CALORIES:
+                    order = Integer.compare(rows.calories(left), rows.calories(right));
+                    break;
+                case PRICE:
+                    order = Double.compare(rows.price(left), rows.price(right));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (order == 0) {
+            order = Integer.compare(rows.mealId(left), rows.mealId(right));
+        }
+        return ascending ? order : -order;
+    }
+    
+    private void applySort() {
+        OffHeapMealCatalog rows = catalog;
+        switch (sortColumn) {
+            case MEAL_ID:
+                RowIndexSorter.sortByIntKey(viewToRow, rowCount, rows::mealId, ascending);
+                break;
+            case CALORIES:
+                RowIndexSorter.sortByIntKey(viewToRow, rowCount, rows::calories, ascending);
+                break;
+            case MEAL_NAME:
+                int[] nameRanks = rows.stringRanks();
+                RowIndexSorter.sortByIntKey(viewToRow, rowCount, row -> rank(nameRanks, rows.mealNameCode(row)), ascending);
+                break;
+            case CATEGORY:
+                RowIndexSorter.sortByIntKey(viewToRow, rowCount, row -> categories.rankOf(rows.categoryId(row)), ascending);
+                break;
+            case PRICE:
+                RowIndexSorter.sortByLongKey(viewToRow, rowCount, row -> sortableBits(rows.price(row)), ascending);
+                break;
+        }
+        indexView(0, rowCount);
+    }
+    
+    // Maps a double to a long whose signed order matches Double.compare
+    private static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+    
+    // Null names sort before everything else
+    private static int rank(int[] ranks, int code) {
+        return code == StringArena.NULL_CODE ? -1 : ranks[code];
+    }
     
-    public Meal(int mealId, String mealName, int calories, double price) {
-        this.mealId = mealId;
-        this.mealName = mealName;
-        this.calories = calories;
-        this.price = price;
+    @Override
+    public int getRowCount() { return rowCount; }
+    
+    @Override
+    public int getColumnCount() { return COLUMN_NAMES.length; }
+    
+    @Override
+    public String getColumnName(int column) { return COLUMN_NAMES[column]; }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (COLUMNS[column]) {
+            case MEAL_ID:
+            case CALORIES:
+                return Integer.class;
+            case PRICE:
+                return Double.class;
+            default:
+                return String.class;
+        }
     }
     
-    // Constructor with category information
-    public Meal(int mealId, String mealName, int calories, double price, int categoryId, String categoryName) {
-        this.mealId = mealId;
-        this.mealName = mealName;
-        this.calories = calories;
-        this.price = price;
-        this.categoryId = categoryId;
-        this.categoryName = categoryName;
+    // What the table paints: strings read straight from the catalog, without boxing numbers
+    public String getTextAt(int viewRow, int column) {
+        int row = viewToRow[viewRow];
+        MealColumn mealColumn = COLUMNS[column];
+        int slot;
+        switch (mealColumn) {
+            case MEAL_ID: slot = 0; break;
+            case CALORIES: slot = TEXT_CACHE_SLOTS; break;
+            case PRICE: slot = 2 * TEXT_CACHE_SLOTS; break;
+            default: return (String) getValueAt(viewRow, column);
+        }
+        slot += row & (TEXT_CACHE_SLOTS - 1);
+        if (textRows[slot] != row) {
+            switch (mealColumn) {
+                case MEAL_ID: texts[slot] = Integer.toString(catalog.mealId(row)); break;
+                case CALORIES: texts[slot] = Integer.toString(catalog.calories(row)); break;
+                default: texts[slot] = Double.toString(catalog.price(row)); break;
+            }
+            textRows[slot] = row;
+        }
+        return texts[slot];
     }
     
-    // Getters and setters
-    public int getMealId() { return mealId; }
-    public void setMealId(int mealId) { this.mealId = mealId; }
-    public String getMealName() { return mealName; }
-    public void setMealName(String mealName) { this.mealName = mealName; }
-    public int getCalories() { return calories; }
-    public void setCalories(int calories) { this.calories = calories; }
-    public double getPrice() { return price; }
-    public void setPrice(double price) { this.price = price; }
-    public int getCategoryId() { return categoryId; }
-    public void setCategoryId(int categoryId) { this.categoryId = categoryId; }
-    public String getCategoryName() { return categoryName; }
-    public void setCategoryName(String categoryName) { this.categoryName = categoryName; }
+    // Rows are renumbered when meals are removed or the catalog is replaced
+    private void clearTextCache() {
+        Arrays.fill(textRows, -1);
+    }
     
     @Override
-    public String toString() {
-        return "Meal{" +
-                "mealId=" + mealId +
-                ", mealName='" + mealName + '\'' +
-                ", calories=" + calories +
-                ", price=" + price +
-                ", categoryId=" + categoryId +
-                ", categoryName='" + categoryName + '\'' +
-                '}';
+    public Object getValueAt(int viewRow, int column) {
+        int row = viewToRow[viewRow];
+        switch (COLUMNS[column]) {
+            case MEAL_ID: return catalog.mealId(row);
+            case MEAL_NAME: return catalog.mealName(row);
+            case CATEGORY:
+                String categoryName = categories.nameOf(catalog.categoryId(row));
+                return categoryName != null ? categoryName : "Uncategorized";
+            case CALORIES: return catalog.calories(row);
+            default: return catalog.price(row);
+        }
     }
 }
 
-// Category class for meal categories
-class Category {
-    private int categoryId;
-    private String categoryName;
-    private String description;
+// Category lookups by id, shared by the category picker and the meal table so the table
+// can show names without joining meal_categories. Replaced wholesale; safe to read from any thread.
+class CategoryDirectory {
+    // Categories in name order with their lower-cased names, the picker's prefix index
+    static class Snapshot {
+        final Category[] byName;
+        final String[] nameKeys;
+        private final IntIntHashMap rankById;
+        
+        Snapshot(List<Category> categories) {
+            int count = categories.size();
+            String[] keys = new String[count];
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                String name = categories.get(i).getCategoryName();
+                keys[i] = name != null ? name.toLowerCase() : "";
+                order[i] = i;
+            }
+            RowIndexSorter.sort(order, count, (left, right) -> keys[left].compareTo(keys[right]));
+            
+            byName = new Category[count];
+            nameKeys = new String[count];
+            rankById = new IntIntHashMap(count);
+            for (int rank = 0; rank < count; rank++) {
+                byName[rank] = categories.get(order[rank]);
+                nameKeys[rank] = keys[order[rank]];
+                rankById.put(byName[rank].getCategoryId(), rank);
+            }
+        }
+    }
     
-    public Category(int categoryId, String categoryName, String description) {
-        this.categoryId = categoryId;
-        this.categoryName = categoryName;
-        this.description = description;
+    private volatile Snapshot snapshot = new Snapshot(new ArrayList<>());
+    
+    public Snapshot replaceAll(List<Category> categories) {
+        Snapshot replacement = new Snapshot(categories);
+        snapshot = replacement;
+        return replacement;
     }
     
-    // Getters and setters
-    public int getCategoryId() { return categoryId; }
-    public void setCategoryId(int categoryId) { this.categoryId = categoryId; }
-    public String getCategoryName() { return categoryName; }
-    public void setCategoryName(String categoryName) { this.categoryName = categoryName; }
-    public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public Category get(int categoryId) {
+        Snapshot current = snapshot;
+        int rank = current.rankById.get(categoryId, -1);
+        return rank >= 0 ? current.byName[rank] : null;
+    }
     
-    @Override
-    public String toString() {
-        return categoryName;
+    public String nameOf(int categoryId) {
+        Category category = get(categoryId);
+        return category != null ? category.getCategoryName() : null;
+    }
+    
+    // Position in name order, or -1 for unknown ids so uncategorized meals sort first
+    public int rankOf(int categoryId) {
+        return snapshot.rankById.get(categoryId, -1);
     }
 }
 
-// Database service implementing the interface with generics
-class MealDatabaseService implements DatabaseOperations<Meal> {
-    private Connection connection;
+// Combo box model that installs all categories with one pair of events and filters by
+// name prefix through the directory's sorted names instead of scanning every item
+class CategoryComboBoxModel extends AbstractListModel<Category> implements ComboBoxModel<Category> {
+    private final CategoryDirectory directory;
+    private Category[] categories = new Category[0];
+    private CategoryDirectory.Snapshot index;
+    private int filterFrom;
+    private int filterTo = -1;                       // -1 when no filter is active
+    private Object selectedItem;
     
-    public MealDatabaseService(Connection connection) {
-        this.connection = connection;
+    public CategoryComboBoxModel(CategoryDirectory directory) {
+        this.directory = directory;
     }
     
-    @Override
-    public void insert(Meal meal) throws DatabaseException {
-        PreparedStatement preparedStatement = null;
-        try {
-            preparedStatement = connection.prepareStatement(
-                "INSERT INTO meals (meal_id, meal_name, calories, price, category_id) VALUES (?, ?, ?, ?, ?)");
-            preparedStatement.setInt(1, meal.getMealId());
-            preparedStatement.setString(2, meal.getMealName());
-            preparedStatement.setInt(3, meal.getCalories());
-            preparedStatement.setDouble(4, meal.getPrice());
-            preparedStatement.setInt(5, meal.getCategoryId());
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to insert meal", e);
-        } finally {
-            try {
-                if (preparedStatement != null) {
-                    preparedStatement.close();
-                }
-            } catch (SQLException e) {
-                System.err.println("Error closing prepared statement: " + e.getMessage());
-            }
+    // The snapshot comes from directory.replaceAll(), which can run off the EDT
+    public void setCategories(List<Category> newCategories, CategoryDirectory.Snapshot snapshot) {
+        int oldSize = getSize();
+        categories = newCategories.toArray(new Category[0]);
+        index = snapshot;
+        filterTo = -1;
+        
+        // Keep the selection if that category still exists
+        if (selectedItem instanceof Category) {
+            selectedItem = directory.get(((Category) selectedItem).getCategoryId());
         }
+        if (selectedItem == null && categories.length > 0) {
+            selectedItem = categories[0];
+        }
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (categories.length > 0) {
+            fireIntervalAdded(this, 0, categories.length - 1);
+        }
+        fireContentsChanged(this, -1, -1);
     }
     
-    @Override
-    public void delete(int mealId) throws DatabaseException {
-        PreparedStatement preparedStatement = null;
-        try {
-            preparedStatement = connection.prepareStatement("DELETE FROM meals WHERE meal_id = ?");
-            preparedStatement.setInt(1, mealId);
-            int affectedRows = preparedStatement.executeUpdate();
-            if (affectedRows == 0) {
-                throw new DatabaseException("No meal found with ID: " + mealId);
+    // Shows only categories whose name starts with the prefix, in name order; null clears the filter.
+    // Returns the number of matches; a prefix with no matches leaves the current filter in place.
+    public int setFilter(String prefix) {
+        int oldSize = getSize();
+        if (prefix == null || prefix.isEmpty()) {
+            if (filterTo < 0) {
+                return oldSize;
             }
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to delete meal", e);
-        } finally {
-            try {
-                if (preparedStatement != null) {
-                    preparedStatement.close();
-                }
-            } catch (SQLException e) {
-                System.err.println("Error closing prepared statement: " + e.getMessage());
+            filterTo = -1;
+        } else if (index == null) {
+            return 0;
+        } else {
+            String key = prefix.toLowerCase();
+            int from = lowerBound(key);
+            int to = lowerBound(key + Character.MAX_VALUE);
+            if (from == to) {
+                return 0;
             }
+            filterFrom = from;
+            filterTo = to;
         }
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        int newSize = getSize();
+        if (newSize > 0) {
+            fireIntervalAdded(this, 0, newSize - 1);
+        }
+        return newSize;
     }
     
-    @Override
-    public List<Meal> getAll() throws DatabaseException {
-        List<Meal> meals = new ArrayList<>();
-        Statement statement = null;
-        ResultSet resultSet = null;
-        
-        try {
-            statement = connection.createStatement();
-            // Using JOIN to get category information
-            String query = "SELECT m.meal_id, m.meal_name, m.calories, m.price, m.category_id, c.category_name " +
-                           "FROM meals m LEFT JOIN meal_categories c ON m.category_id = c.category_id";
-            resultSet = statement.executeQuery(query);
-            
-            while (resultSet.next()) {
-                Meal meal = new Meal(
-                    resultSet.getInt("meal_id"),
-                    resultSet.getString("meal_name"),
-                    resultSet.getInt("calories"),
-                    resultSet.getDouble("price"),
-                    resultSet.getInt("category_id"),
-                    resultSet.getString("category_name")
-                );
-                meals.add(meal);
-            }
-            return meals;
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to retrieve meals", e);
-        } finally {
-            try {
-                if (resultSet != null) resultSet.close();
-                if (statement != null) statement.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing resources: " + e.getMessage());
+    private int lowerBound(String key) {
+        String[] keys = index.nameKeys;
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
+        return low;
     }
     
-    // Method to get all categories
-    public List<Category> getAllCategories() throws DatabaseException {
-        List<Category> categories = new ArrayList<>();
-        Statement statement = null;
-        ResultSet resultSet = null;
-        
-        try {
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery("SELECT * FROM meal_categories");
-            
-            while (resultSet.next()) {
-                Category category = new Category(
-                    resultSet.getInt("category_id"),
-                    resultSet.getString("category_name"),
-                    resultSet.getString("description")
-                );
-                categories.add(category);
-            }
-            return categories;
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to retrieve categories", e);
-        } finally {
-            try {
-                if (resultSet != null) resultSet.close();
-                if (statement != null) statement.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing resources: " + e.getMessage());
+    // Longest name (capped) so the combo box and its list can size from one value
+    public Category prototype(int maxLength) {
+        String longest = "";
+        for (Category category : categories) {
+            String name = category.getCategoryName();
+            if (name != null && name.length() > longest.length()) {
+                longest = name;
             }
         }
+        if (longest.length() > maxLength) {
+            longest = longest.substring(0, maxLength);
+        }
+        return new Category(-1, longest, null);
     }
     
-    // Method to insert a category
-    public void insertCategory(Category category) throws DatabaseException {
-        PreparedStatement preparedStatement = null;
-        try {
-            preparedStatement = connection.prepareStatement(
-                "INSERT INTO meal_categories (category_id, category_name, description) VALUES (?, ?, ?)");
-            preparedStatement.setInt(1, category.getCategoryId());
-            preparedStatement.setString(2, category.getCategoryName());
-            preparedStatement.setString(3, category.getDescription());
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DatabaseException("Failed to insert category", e);
-        } finally {
-            try {
-                if (preparedStatement != null) {
-                    preparedStatement.close();
-                }
-            } catch (SQLException e) {
-                System.err.println("Error closing prepared statement: " + e.getMessage());
-            }
+    @Override
+    public int getSize() {
+        return filterTo < 0 ? categories.length : filterTo - filterFrom;
+    }
+    
+    @Override
+    public Category getElementAt(int position) {
+        return filterTo < 0 ? categories[position] : index.byName[filterFrom + position];
+    }
+    
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item != selectedItem) {
+            selectedItem = item;
+            fireContentsChanged(this, -1, -1);
         }
     }
+    
+    @Override
+    public Object getSelectedItem() {
+        return selectedItem;
+    }
 }
 
 // Input validation interface
@@ -267,15 +3608,30 @@ interface InputValidator {
 public class MealLab12 extends JFrame {
     private JTextField mealIdField, mealNameField, caloriesField, priceField;
     private JComboBox<Category> categoryComboBox;
-    private DefaultTableModel tableModel;
+    // Names for both the picker and the table's category column
+    private final CategoryDirectory categoryDirectory = new CategoryDirectory();
+    private CategoryComboBoxModel categoryModel;
+    private MealTableModel tableModel;
     private JTable table;
+    // Submit, delete, refresh and add-category; disabled until the database is ready
+    private JPanel actionPanel;
     private Connection connection;
-    private MealDatabaseService databaseService;
+    private ReplicatedConnectionRouter connectionRouter;
+    // Set by the connecting worker; stays null until the database is ready, or for good if connecting failed
+    private volatile MealCatalog databaseService;
+    private MealDatabaseService jdbcService;
+    private LogStructuredMealStore localStore;
     private ExecutorService executorService;
     private JLabel statusLabel;
     private Color primaryColor = new Color(30, 144, 255);  // Dodger Blue
     private Color accentColor = new Color(0, 102, 204);    // Darker Blue
     private Color buttonTextColor = Color.BLACK;
+    private Color stripeColor = new Color(240, 248, 255);  // Alice Blue, shared by every striped cell
+    // Larger catalogs are loaded as a server-ordered prefix and re-queried on sort
+    private int maxTableRows = Integer.getInteger("meal.table.maxRows", 2_000_000);
+    private Future<?> mealLoad;
+    private QueryHandle mealLoadQuery;
+    private ChangeLogPoller changePoller;
     
     // Generic method for input validation
     private <T> T validateInput(String input, InputValidator validator, String errorMessage) throws IllegalArgumentException {
@@ -294,26 +3650,123 @@ public class MealLab12 extends JFrame {
         // Initialize thread pool
         executorService = Executors.newFixedThreadPool(3);
         
-        // Initialize database connection
-        initializeDatabase();
-        
         // Initialize UI components
         initializeUI();
-        
-        // Load existing meals and categories
-        loadCategories();
-        loadMeals();
-        
+        setDatabaseActionsEnabled(false);
         setVisible(true);
+        
+        // Connecting can wait on the migration lock and build indexes on a large meals table,
+        // so it runs off the EDT while the window shows progress in the status bar
+        updateStatus("Connecting to database...");
+        executorService.submit(() -> {
+            initializeDatabase();
+            SwingUtilities.invokeLater(() -> {
+                if (databaseService == null) {
+                    return;
+                }
+                setDatabaseActionsEnabled(true);
+                startChangeSync();
+                
+                // Load existing meals and categories
+                loadCategories();
+                loadMeals();
+            });
+        });
+    }
+    
+    private void setDatabaseActionsEnabled(boolean enabled) {
+        for (Component button : actionPanel.getComponents()) {
+            button.setEnabled(enabled);
+        }
+    }
+    
+    // Names this instance in meal_change_log; override with -Dmeal.node.id when running several per host
+    private static String nodeId() {
+        String nodeId = System.getProperty("meal.node.id");
+        if (nodeId == null) {
+            String host;
+            try {
+                host = java.net.InetAddress.getLocalHost().getHostName();
+            } catch (java.net.UnknownHostException e) {
+                host = "unknown";
+            }
+            nodeId = host + ":" + ProcessHandle.current().pid();
+        }
+        return nodeId.length() > 64 ? nodeId.substring(0, 64) : nodeId;
     }
     
+    // Keeps the table and category picker in step with writes from other instances
+    private void startChangeSync() {
+        if (jdbcService == null || !jdbcService.isChangeLogEnabled()) {
+            return;
+        }
+        changePoller = ChangeLogPoller.fromSystemProperties(jdbcService, new MealChangeListener() {
+            @Override
+            public void mealsChanged(List<Meal> upserted, int[] deletedIds) {
+                SwingUtilities.invokeLater(() -> tableModel.applyChanges(upserted, deletedIds));
+            }
+            
+            @Override
+            public void categoriesChanged() {
+                loadCategories();
+            }
+        });
+        try {
+            changePoller.start();
+        } catch (DatabaseException e) {
+            changePoller = null;
+            handleException(e, "Change Sync Unavailable");
+        }
+    }
+    
+    // Runs on a worker thread; errors are reported on the EDT
     private void initializeDatabase() {
+        // -Dmeal.store=local runs without MySQL against an embedded log file
+        if ("local".equals(System.getProperty("meal.store"))) {
+            try {
+                localStore = new LogStructuredMealStore(Paths.get(System.getProperty("meal.store.path", "meal_plan.log")));
+                databaseService = localStore;
+            } catch (DatabaseException e) {
+                SwingUtilities.invokeLater(() -> handleException(e, "Opening Local Store Failed!"));
+            }
+            return;
+        }
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/meal_plan", "root", "Nayasa!123");
-            databaseService = new MealDatabaseService(connection);
+            connectionRouter = ReplicatedConnectionRouter.fromSystemProperties();
+            connection = connectionRouter.forWrite();
+            jdbcService = new MealDatabaseService(connectionRouter, QueryPolicy.fromSystemProperties());
         } catch (ClassNotFoundException | SQLException e) {
-            handleException(e, "Database Connection Failed!");
+            SwingUtilities.invokeLater(() -> handleException(e, "Database Connection Failed!"));
+            return;
+        }
+        
+        if (!"false".equals(System.getProperty("meal.schema.migrate"))) {
+            updateStatus("Upgrading database schema...");
+            try {
+                if (new SchemaMigrator(connection).migrate() >= SchemaMigrator.CHANGE_LOG_VERSION) {
+                    jdbcService.enableChangeLog(nodeId());
+                }
+            } catch (DatabaseException e) {
+                SwingUtilities.invokeLater(() -> handleException(e, "Schema Migration Failed!"));
+            }
+        }
+        // Published only once the schema is settled, so nothing on the EDT queries a half-migrated database
+        databaseService = jdbcService;
+        if (Boolean.getBoolean("meal.explain.check")) {
+            executorService.submit(this::checkQueryPlans);
+        }
+    }
+    
+    // Startup variant of QueryPlanChecker; findings go to the log, not to a dialog
+    private void checkQueryPlans() {
+        try {
+            List<String> problems = new QueryPlanChecker(connection).check(MealDatabaseService.explainedQueries());
+            for (String problem : problems) {
+                System.err.println("Query without index: " + problem);
+            }
+        } catch (DatabaseException e) {
+            System.err.println("Query plan check failed: " + e.getMessage());
         }
     }
     
@@ -371,9 +3824,12 @@ public class MealLab12 extends JFrame {
         priceField = createStyledTextField();
         
         // Create category combo box
-        categoryComboBox = new JComboBox<>();
+        categoryModel = new CategoryComboBoxModel(categoryDirectory);
+        categoryComboBox = new JComboBox<>(categoryModel);
         categoryComboBox.setFont(new Font("Arial", Font.PLAIN, 14));
         categoryComboBox.setBackground(Color.WHITE);
+        categoryComboBox.setMaximumRowCount(15);
+        installCategoryTypeAhead();
         
         // Create buttons with improved style
         JButton submitButton = createStyledButton("Submit", new Color(46, 139, 87)); // SeaGreen
@@ -419,6 +3875,7 @@ public class MealLab12 extends JFrame {
         buttonPanel.add(deleteButton);
         buttonPanel.add(refreshButton);
         buttonPanel.add(addCategoryButton);
+        actionPanel = buttonPanel;
         
         gbc.gridx = 0; gbc.gridy = 5; gbc.gridwidth = 2; gbc.weightx = 1.0;
         gbc.insets = new Insets(15, 5, 5, 5);
@@ -442,15 +3899,15 @@ public class MealLab12 extends JFrame {
         ));
         tablePanel.setBackground(new Color(240, 248, 255));
         
-        String[] columnNames = {"Meal ID", "Meal Name", "Category", "Calories", "Price"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
+        tableModel = new MealTableModel(categoryDirectory);
+        
+        table = new JTable(tableModel) {
+            // Renderers get the model's cached text instead of a boxed Integer or Double per cell
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table non-editable
+            public Object getValueAt(int row, int column) {
+                return tableModel.getTextAt(convertRowIndexToModel(row), convertColumnIndexToModel(column));
             }
         };
-        
-        table = new JTable(tableModel);
         JTableHeader header = table.getTableHeader();
         header.setBackground(accentColor);
         header.setForeground(Color.BLACK);
@@ -465,16 +3922,31 @@ public class MealLab12 extends JFrame {
         table.setSelectionForeground(Color.BLACK);
         
         // Add zebra striping to the table
-        table.setDefaultRenderer(Object.class, new javax.swing.table.DefaultTableCellRenderer() {
+        DefaultTableCellRenderer stripedRenderer = new DefaultTableCellRenderer() {
             @Override
             public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, 
                                                           boolean hasFocus, int row, int column) {
                 Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
                 if (!isSelected) {
-                    c.setBackground(row % 2 == 0 ? Color.WHITE : new Color(240, 248, 255));
+                    c.setBackground(row % 2 == 0 ? Color.WHITE : stripeColor);
                 }
                 return c;
             }
+        };
+        table.setDefaultRenderer(Object.class, stripedRenderer);
+        table.setDefaultRenderer(String.class, stripedRenderer);
+        table.setDefaultRenderer(Integer.class, stripedRenderer);
+        table.setDefaultRenderer(Double.class, stripedRenderer);
+        
+        // Sort on header click: locally when every row is loaded, otherwise through the database
+        header.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(evt.getPoint()));
+                if (column >= 0) {
+                    sortMeals(MealColumn.values()[column]);
+                }
+            }
         });
         
         JScrollPane scrollPane = new JScrollPane(table);
@@ -530,11 +4002,9 @@ public class MealLab12 extends JFrame {
         executorService.submit(() -> {
             try {
                 List<Category> categories = databaseService.getAllCategories();
+                CategoryDirectory.Snapshot snapshot = categoryDirectory.replaceAll(categories);
                 SwingUtilities.invokeLater(() -> {
-                    categoryComboBox.removeAllItems();
-                    for (Category category : categories) {
-                        categoryComboBox.addItem(category);
-                    }
+                    installCategories(categories, snapshot);
                     updateStatus("Categories loaded successfully.");
                 });
             } catch (DatabaseException e) {
@@ -543,33 +4013,149 @@ public class MealLab12 extends JFrame {
         });
     }
     
+    // One model swap instead of an addItem per category, each of which fired its own event
+    private void installCategories(List<Category> categories, CategoryDirectory.Snapshot snapshot) {
+        if (categoryComboBox.isPopupVisible()) {
+            categoryComboBox.hidePopup();
+        }
+        categoryModel.setCategories(categories, snapshot);
+        
+        // Size the box and its popup from one prototype rather than measuring every name
+        Category prototype = categoryModel.prototype(40);
+        categoryComboBox.setPrototypeDisplayValue(prototype);
+        Object popup = categoryComboBox.getUI().getAccessibleChild(categoryComboBox, 0);
+        if (popup instanceof ComboPopup) {
+            ((ComboPopup) popup).getList().setPrototypeCellValue(prototype);
+        }
+        tableModel.categoriesChanged();
+    }
+    
+    // Typing narrows the popup to categories starting with the typed text; closing it clears the filter
+    private void installCategoryTypeAhead() {
+        StringBuilder typed = new StringBuilder();
+        long[] lastKeyTime = new long[1];
+        categoryComboBox.setKeySelectionManager((key, model) -> {
+            long now = System.currentTimeMillis();
+            if (now - lastKeyTime[0] > 1000) {
+                typed.setLength(0);
+            }
+            lastKeyTime[0] = now;
+            if (key == '\b') {
+                if (typed.length() > 0) {
+                    typed.setLength(typed.length() - 1);
+                }
+            } else {
+                typed.append(key);
+            }
+            if (categoryModel.setFilter(typed.toString()) == 0) {
+                // Ignore a keystroke that would leave nothing to pick
+                typed.setLength(typed.length() - 1);
+                return -1;
+            }
+            if (!categoryComboBox.isPopupVisible() && categoryComboBox.isShowing()) {
+                categoryComboBox.showPopup();
+            }
+            return 0;
+        });
+        categoryComboBox.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+            }
+            
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+                typed.setLength(0);
+                SwingUtilities.invokeLater(() -> categoryModel.setFilter(null));
+            }
+            
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
+    }
+    
     private void loadMeals() {
+        if (databaseService == null) {
+            return;
+        }
         updateStatus("Loading meals...");
+        MealColumn sortColumn = tableModel.getSortColumn();
+        boolean ascending = tableModel.isAscending();
+        // A newer load supersedes one still running instead of queueing behind it
+        cancelMealLoad();
+        QueryHandle query = new QueryHandle();
+        mealLoadQuery = query;
         // Using multithreading with a Future to load meals asynchronously
-        Future<?> future = executorService.submit(() -> {
+        mealLoad = executorService.submit(() -> {
+            long changesBeforeLoad = changePoller != null ? changePoller.getCursor() : -1;
             try {
-                List<Meal> meals = databaseService.getAll();
+                OffHeapMealCatalog catalog = new OffHeapMealCatalog(1024);
+                boolean[] partial = {false};
+                MealRowSink sink = (mealId, mealName, calories, price, categoryId) -> {
+                    if (catalog.size() < maxTableRows) {
+                        catalog.accept(mealId, mealName, calories, price, categoryId);
+                    } else {
+                        partial[0] = true;
+                    }
+                };
+                databaseService.scanOrdered(sortColumn != null ? sortColumn : MealColumn.MEAL_ID, ascending, maxTableRows + 1, sink, query);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (!partial[0]) {
+                    // Ranking every distinct name takes about a second at a million rows; doing it here
+                    // keeps the first name sort on the EDT as fast as the others
+                    catalog.stringRanks();
+                }
                 
                 // Update UI on the Event Dispatch Thread
                 SwingUtilities.invokeLater(() -> {
-                    tableModel.setRowCount(0);
-                    for (Meal meal : meals) {
-                        tableModel.addRow(new Object[]{
-                            meal.getMealId(), 
-                            meal.getMealName(),
-                            meal.getCategoryName() != null ? meal.getCategoryName() : "Uncategorized",
-                            meal.getCalories(), 
-                            meal.getPrice()
-                        });
+                    tableModel.setCatalog(catalog, partial[0]);
+                    // Changes delivered while the scan ran went to the old catalog; replay them onto this one
+                    if (changePoller != null) {
+                        changePoller.replayFrom(changesBeforeLoad);
                     }
-                    updateStatus("Meals loaded successfully.");
+                    updateStatus(partial[0]
+                        ? "Showing first " + catalog.size() + " meals; sorting is done by the database."
+                        : "Meals loaded successfully.");
                 });
             } catch (DatabaseException e) {
-                SwingUtilities.invokeLater(() -> handleException(e, "Error loading meals"));
+                if (!Thread.currentThread().isInterrupted()) {
+                    SwingUtilities.invokeLater(() -> handleException(e, "Error loading meals"));
+                }
             }
         });
     }
     
+    // The handle belongs to the load, so cancelling a load that already finished touches nothing
+    // its pool thread has picked up since
+    private void cancelMealLoad() {
+        if (mealLoad != null) {
+            mealLoad.cancel(true);
+            mealLoadQuery.cancel();
+        }
+    }
+    
+    private void sortMeals(MealColumn column) {
+        // The header is live while connecting and after a failed connection; there are no rows to sort yet
+        if (databaseService == null) {
+            return;
+        }
+        boolean ascending = column != tableModel.getSortColumn() || !tableModel.isAscending();
+        if (tableModel.isPartial()) {
+            tableModel.setSortOrder(column, ascending);
+            loadMeals();
+        } else {
+            tableModel.sortBy(column, ascending);
+        }
+        for (MealColumn each : MealColumn.values()) {
+            String name = tableModel.getColumnName(each.ordinal());
+            table.getColumnModel().getColumn(table.convertColumnIndexToView(each.ordinal()))
+                .setHeaderValue(each == column ? name + (ascending ? " \u25B2" : " \u25BC") : name);
+        }
+        table.getTableHeader().repaint();
+    }
+    
     private void submitMeal() {
         try {
             // Input validation using lambda expressions
@@ -608,7 +4194,12 @@ public class MealLab12 extends JFrame {
                     
                     // Update UI on the Event Dispatch Thread
                     SwingUtilities.invokeLater(() -> {
-                        loadMeals(); // Reload to show the joined data
+                        // With change sync the new row arrives incrementally; otherwise reload to show the joined data
+                        if (changePoller != null) {
+                            changePoller.pollNow();
+                        } else {
+                            loadMeals();
+                        }
                         clearForm();
                         updateStatus("Meal added successfully.");
                         JOptionPane.showMessageDialog(this, "Meal Added Successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -630,8 +4221,8 @@ public class MealLab12 extends JFrame {
             return;
         }
 
-        int mealId = (int) tableModel.getValueAt(selectedRow, 0);
-        String mealName = (String) tableModel.getValueAt(selectedRow, 1);
+        int mealId = tableModel.getMealIdAt(selectedRow);
+        String mealName = tableModel.getMealNameAt(selectedRow);
         
         // Confirm deletion
         int confirm = JOptionPane.showConfirmDialog(
@@ -651,7 +4242,7 @@ public class MealLab12 extends JFrame {
                     
                     // Update UI on the Event Dispatch Thread
                     SwingUtilities.invokeLater(() -> {
-                        tableModel.removeRow(selectedRow);
+                        tableModel.removeMeal(mealId);
                         updateStatus("Meal deleted successfully.");
                         JOptionPane.showMessageDialog(this, "Meal Deleted Successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                     });
@@ -772,7 +4363,13 @@ public class MealLab12 extends JFrame {
     
     // Method to safely close database connection using try-with-resources
     private void closeConnection() {
-        if (connection != null) {
+        if (localStore != null) {
+            localStore.close();
+        }
+        if (connectionRouter != null) {
+            connectionRouter.close();
+            System.out.println("Database connections closed successfully");
+        } else if (connection != null) {
             try {
                 connection.close();
                 System.out.println("Database connection closed successfully");
@@ -785,6 +4382,14 @@ public class MealLab12 extends JFrame {
     // Override the dispose method to clean up resources
     @Override
     public void dispose() {
+        cancelMealLoad();
+        if (changePoller != null) {
+            changePoller.stop();
+        }
+        if (databaseService instanceof MealDatabaseService) {
+            System.out.println("Database latency: " + ((MealDatabaseService) databaseService).latencyReport());
+        }
+        
         // Shutdown the executor service
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();